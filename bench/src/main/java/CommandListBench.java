@@ -0,0 +1,142 @@
+import com.oocourse.elevator3.PersonRequest;
+
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Decision time of the bitmask CommandList against the former hash table one.
+ * <p>
+ *     For each building height given, one random script of operations is
+ *     generated: requests added, the next command and the directions asked
+ *     from random floors, and the commands of a floor removed with a random
+ *     set of passengers aboard. Both lists replay the script; every answer
+ *     they give must be the same, or the bench stops with an error.
+ *     <pre>
+ *     java CommandListBench 11 100 500
+ *     </pre>
+ *     One line per height is printed: for each list, the replay time divided
+ *     by the number of lookups (nextCommand, both hasEntryInDirection and
+ *     isEmpty) in the script, and the ratio of the two.
+ * </p>
+ */
+public class CommandListBench {
+    private static final int operations = 200_000;
+    private static final int rounds = 5;  // the first one is warm-up
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            args = new String[]{"11", "100", "500"};
+        }
+        for (String arg : args) {
+            final int floors = Integer.parseInt(arg);
+            Script script = new Script(floors, new Random(floors));
+            long hashNanos = 0;
+            long maskNanos = 0;
+            long hashAnswers = 0;
+            long maskAnswers = 0;
+            for (int round = 0; round < rounds; round++) {
+                long begin = System.nanoTime();
+                hashAnswers = script.replay(new HashCommandList(1, floors));
+                long middle = System.nanoTime();
+                maskAnswers = script.replay(new CommandList(1, floors));
+                long end = System.nanoTime();
+                if (round > 0) {
+                    hashNanos += middle - begin;
+                    maskNanos += end - middle;
+                }
+                if (hashAnswers != maskAnswers) {
+                    throw new IllegalStateException("decisions differ at " + floors + " floors");
+                }
+            }
+            final double lookups = (double) script.lookups * (rounds - 1);
+            System.err.printf("floors=%d hash=%.1fns bitmask=%.1fns speedup=%.1fx answers=%x%n",
+                    floors, hashNanos / lookups, maskNanos / lookups,
+                    (double) hashNanos / maskNanos, maskAnswers);
+        }
+    }
+
+    /**
+     * A fixed sequence of operations, with a checksum of the answers replayed.
+     */
+    private static class Script {
+        private final int[] kind = new int[operations];
+        private final int[] floor = new int[operations];
+        private final int[] argument = new int[operations];
+        private final boolean[] jump = new boolean[operations];
+        private final PersonRequest[] requests = new PersonRequest[operations];
+        private final HashSet<PersonRequest> passengers = new HashSet<>();
+        private final Cabin cabin;
+        private int lookups = 0;
+
+        Script(int floors, Random random) {
+            for (int i = 0; i < 4; i++) {
+                int to = 1 + random.nextInt(floors);
+                passengers.add(new PersonRequest(to == 1 ? 2 : 1, to, i));
+            }
+            cabin = new Cabin(floors);
+            cabin.addAll(passengers);
+            for (int i = 0; i < operations; i++) {
+                floor[i] = 1 + random.nextInt(floors);
+                jump[i] = random.nextInt(4) == 0;
+                int dice = random.nextInt(10);
+                if (dice < 3) {
+                    kind[i] = 0;
+                    requests[i] = new PersonRequest(floor[i], 1 + random.nextInt(floors), i);
+                } else if (dice < 9) {
+                    kind[i] = 1;
+                    argument[i] = random.nextInt(3);
+                    lookups++;
+                } else {
+                    kind[i] = 2;
+                    argument[i] = random.nextInt(3) - 1;
+                }
+            }
+        }
+
+        long replay(HashCommandList list) {
+            long answers = 0;
+            for (int i = 0; i < operations; i++) {
+                switch (kind[i]) {
+                    case 0:
+                        list.addEntry(requests[i]);
+                        break;
+                    case 1:
+                        Elevator.Direction direction = Elevator.Direction.values()[argument[i]];
+                        Command command = list.nextCommand(floor[i], direction, jump[i]);
+                        answers = answers * 31 + (command == null ? 0 : command.getDestination());
+                        answers = answers * 31
+                                + (list.hasEntryInDirection(floor[i], Elevator.Direction.UP) ? 1 : 2)
+                                + (list.hasEntryInDirection(floor[i], Elevator.Direction.DOWN) ? 4 : 8);
+                        answers = answers * 31 + (list.isEmpty() ? 1 : 0);
+                        break;
+                    default:
+                        list.removeCurCommand(floor[i], argument[i], jump[i], passengers);
+                }
+            }
+            return answers;
+        }
+
+        long replay(CommandList list) {
+            long answers = 0;
+            for (int i = 0; i < operations; i++) {
+                switch (kind[i]) {
+                    case 0:
+                        list.addEntry(requests[i]);
+                        break;
+                    case 1:
+                        Elevator.Direction direction = Elevator.Direction.values()[argument[i]];
+                        Command command = list.nextCommand(floor[i], direction, jump[i]);
+                        answers = answers * 31 + (command == null ? 0 : command.getDestination());
+                        answers = answers * 31
+                                + (list.hasEntryInDirection(floor[i], Elevator.Direction.UP) ? 1 : 2)
+                                + (list.hasEntryInDirection(floor[i], Elevator.Direction.DOWN) ? 4 : 8);
+                        answers = answers * 31 + (list.isEmpty() ? 1 : 0);
+                        break;
+                    default:
+                        list.removeCurCommand(floor[i], argument[i], jump[i], cabin);
+                }
+            }
+            return answers;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import com.oocourse.elevator3.PersonRequest;
+import com.oocourse.elevator3.TimableOutput;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatch throughput of the server split into zones.
+ * <p>
+ *     A 48-car, 60-floor building on elevator threads is flooded with
+ *     passengers at once, and the time until every one of them is RECEIVEd
+ *     is taken. The cars are made too slow to leave the ground floor within
+ *     the run, and every passenger waits above it, so no car is ever heading
+ *     away and nothing is deferred: the time is all dispatching. Each zone
+ *     count runs in a JVM of its own, started by this bench; the elevator.*
+ *     properties given to the bench(e.g. elevator.cost) are passed on:
+ *     <pre>
+ *     java DispatchScalingBench 1 2 4 8
+ *     </pre>
+ *     One line per zone count is printed to STDERR, with the requests
+ *     dispatched per second and the cores available. Zones also cut the cars
+ *     each request is weighed against, which pays on one core only when
+ *     weighing a car is dear(elevator.cost=eta); with the priority cost the
+ *     routing and the threads cost more than they save there.
+ * </p>
+ */
+public class DispatchScalingBench {
+    private static final int cars = 48;
+    private static final int floors = 60;
+    private static final int passengers = 4000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--run")) {
+            runZones(Integer.parseInt(args[1]));
+            return;
+        }
+        if (args.length == 0) {
+            args = new String[]{"1", "2", "4", "8"};
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java";
+        for (String zones : args) {
+            ArrayList<String> command = new ArrayList<>();
+            command.add(java);
+            for (String key : System.getProperties().stringPropertyNames()) {
+                if (key.startsWith("elevator.")) {
+                    command.add("-D" + key + "=" + System.getProperty(key));
+                }
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("DispatchScalingBench");
+            command.add("--run");
+            command.add(zones);
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException("zones=" + zones + " failed");
+            }
+        }
+    }
+
+    private static void runZones(int zones) throws InterruptedException {
+        System.setProperty("elevator.cars", Integer.toString(cars));
+        System.setProperty("elevator.floors", "1-" + floors);
+        System.setProperty("elevator.zones", Integer.toString(zones));
+        System.setProperty("elevator.moveTime", "1000000");
+        ReceiveCounter counter = new ReceiveCounter();
+        System.setOut(new PrintStream(counter, true));
+        TimableOutput.initStartTimestamp();
+        Random random = new Random(zones);
+        flood(passengers / 4, 0, counter, random);  // warm-up
+        final double seconds = flood(passengers, passengers / 4, counter, random);
+        System.err.printf("zones=%d cars=%d floors=%d requests=%d dispatch_rate=%.0f/s cores=%d%n",
+                zones, cars, floors, passengers, passengers / seconds,
+                Runtime.getRuntime().availableProcessors());
+        System.exit(0);  // the elevators are still on their way
+    }
+
+    /**
+     * Start a building, give it the passengers at once and wait for their
+     * RECEIVEs.
+     * @return the seconds taken
+     */
+    private static double flood(int num, int firstId, ReceiveCounter counter, Random random)
+            throws InterruptedException {
+        RequestQueue requestQueue = new RequestQueue();
+        Launcher.start(new ServerThread(requestQueue));
+        ArrayList<PersonRequest> requests = new ArrayList<>();
+        for (int i = 0; i < num; i++) {
+            int from = 2 + random.nextInt(floors - 1);
+            int to = from == floors ? 1 : from + 1 + random.nextInt(floors - from);
+            requests.add(new PersonRequest(from, to, firstId + i));
+        }
+        final long target = counter.receives.get() + num;
+        final long begin = System.nanoTime();
+        requestQueue.addRequests(requests);
+        while (counter.receives.get() < target) {
+            Thread.sleep(1);
+        }
+        return (System.nanoTime() - begin) / 1e9;
+    }
+
+    /**
+     * Discards the output, counting the RECEIVE lines.
+     */
+    private static class ReceiveCounter extends OutputStream {
+        private static final byte[] pattern = "RECEIVE".getBytes();
+        private final AtomicLong receives = new AtomicLong();
+        private int matched = 0;  // written by the PrintStream's lock holder only
+
+        @Override
+        public void write(int b) {
+            if (b == pattern[matched]) {
+                if (++matched == pattern.length) {
+                    receives.incrementAndGet();
+                    matched = 0;
+                }
+            } else {
+                matched = b == pattern[0] ? 1 : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import com.oocourse.elevator3.PersonRequest;
+import com.oocourse.elevator3.Request;
+import jmh.CommandListJmh;
+import jmh.DispatchJmh;
+import jmh.ElevatorJmh;
+import jmh.FloorRequestTableJmh;
+import jmh.RequestQueueJmh;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The simulator code driven by the JMH benchmarks of package jmh, which
+ * can't refer to the default package themselves; see jmh.Targets. Each
+ * nested class holds the fixture of one benchmark.
+ */
+public class JmhTargets {
+    /**
+     * The lines printed by the code under test(IN, OUT, RECEIVE) go nowhere.
+     * To be called before TimableOutput is first used, as it keeps the stream.
+     */
+    private static void discardOutput() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * A command list of the given density, only asked: every call sees the
+     * same table. The floor and direction asked cycle through a random
+     * sequence.
+     */
+    public static class CommandListTarget implements CommandListJmh.Target {
+        private static final Elevator.Direction[] directions = Elevator.Direction.values();
+        private final CommandList commandList;
+        private final int[] askedFloors = new int[1024];
+        private final Elevator.Direction[] askedDirections = new Elevator.Direction[1024];
+        private int next = 0;
+
+        CommandListTarget(Integer floors, Double density) {
+            Random random = new Random(floors);
+            commandList = new CommandList(1, floors);
+            for (int floor = 1; floor <= floors; floor++) {
+                if (random.nextDouble() >= density) {
+                    continue;
+                }
+                int to = 1 + random.nextInt(floors);
+                CommandTableEntry.Direction direction = to > floor
+                        ? CommandTableEntry.Direction.UP : to < floor
+                        ? CommandTableEntry.Direction.DOWN : CommandTableEntry.Direction.END;
+                commandList.addEntry(floor, new CommandTableEntry(direction, to));
+            }
+            for (int i = 0; i < askedFloors.length; i++) {
+                askedFloors[i] = 1 + random.nextInt(floors);
+                askedDirections[i] = directions[random.nextInt(directions.length)];
+            }
+        }
+
+        @Override
+        public Object nextCommand() {
+            final int i = next++ & 1023;
+            return commandList.nextCommand(askedFloors[i], askedDirections[i], (i & 1) == 0);
+        }
+
+        @Override
+        public boolean hasEntryInDirection() {
+            final int i = next++ & 1023;
+            return commandList.hasEntryInDirection(askedFloors[i], askedDirections[i]);
+        }
+    }
+
+    /**
+     * The waiters of a floor added to a table and taken by a car of the given
+     * capacity until the floor is empty.
+     */
+    public static class FloorRequestTableTarget implements FloorRequestTableJmh.Target {
+        private final FloorRequestTable table = new FloorRequestTable(1, 11);
+        private final PersonRequest[] waiters;
+        private final int capacity;
+        private final ArrayList<PersonRequest> loaded = new ArrayList<>();
+
+        FloorRequestTableTarget(Integer waiterNum, Integer capacity) {
+            this.capacity = capacity;
+            waiters = new PersonRequest[waiterNum];
+            for (int i = 0; i < waiterNum; i++) {
+                waiters[i] = new PersonRequest(3, 4 + i % 8, i);
+            }
+        }
+
+        @Override
+        public int addAndTake() {
+            for (PersonRequest waiter : waiters) {
+                table.addRequest(waiter);
+            }
+            int taken = 0;
+            while (taken < waiters.length) {
+                loaded.clear();
+                taken += table.getFloorWaiters(3, 1, capacity, loaded);
+            }
+            return taken;
+        }
+    }
+
+    /**
+     * A car of a server that isn't started, taking passengers at floor 1 and
+     * letting them out at floor 5 the way ElevatorThread does at each stop:
+     * unload, load, then remove the command.
+     */
+    public static class ElevatorTarget implements ElevatorJmh.Target {
+        private final ServerThread server;
+        private final Elevator elevator;
+        private final PersonRequest[] requests;
+
+        ElevatorTarget(Integer passengers) {
+            discardOutput();
+            server = new ServerThread(new RequestQueue());
+            elevator = server.getElevators().get("1");
+            requests = new PersonRequest[passengers];
+            for (int i = 0; i < passengers; i++) {
+                requests[i] = new PersonRequest(1, 5, i);
+            }
+        }
+
+        @Override
+        public int trip() {
+            for (PersonRequest request : requests) {
+                elevator.addRequest(request);
+            }
+            elevator.unloadPassengers(server);
+            elevator.loadPassengers(1);
+            elevator.removeCurCommand(1, false);
+            elevator.setFloor(5);
+            elevator.unloadPassengers(server);
+            elevator.loadPassengers(-1);
+            elevator.removeCurCommand(-1, false);
+            final int load = elevator.getLoad();
+            elevator.setFloor(1);
+            return load;
+        }
+
+        @Override
+        public int observe() {
+            return elevator.nextDirection() + (elevator.isCommandEmpty() ? 1 : 0);
+        }
+    }
+
+    /**
+     * A server of the given fleet over 11 floors, not started: a request is
+     * queued and dispatchPending() takes it and gives it to a car, the path
+     * of the server loop. The cars stay around floor 1 and every request
+     * starts above it going up, so none is deferred. As the cars never carry
+     * their requests away, the fleet is built anew after 8 requests a car,
+     * which keeps their loads, and so the eta cost, from growing without end;
+     * the building is included in the time, a few percent of it.
+     */
+    public static class DispatchTarget implements DispatchJmh.Target {
+        private static final int requestsPerCar = 8;
+        private RequestQueue requestQueue;
+        private ServerThread server;
+        private volatile Elevator[] elevators;
+        private final PersonRequest[] requests = new PersonRequest[4096];
+        private final int period;
+        private int given = 0;
+        private int next = 0;
+
+        DispatchTarget(Integer cars, String cost) {
+            // read once, by the first server of the JVM: a fork runs one fleet
+            System.setProperty("elevator.cars", Integer.toString(cars));
+            System.setProperty("elevator.cost", cost);
+            discardOutput();
+            period = requestsPerCar * cars;
+            build();
+            Random random = new Random(cars);
+            for (int i = 0; i < requests.length; i++) {
+                int from = 2 + random.nextInt(9);
+                int to = from + 1 + random.nextInt(11 - from);
+                requests[i] = new PersonRequest(from, to, i);
+            }
+        }
+
+        private void build() {
+            requestQueue = new RequestQueue();
+            server = new ServerThread(requestQueue);
+            elevators = server.getElevators().values().toArray(new Elevator[0]);
+        }
+
+        @Override
+        public void schedule() {
+            if (++given == period) {
+                given = 0;
+                build();
+            }
+            requestQueue.addRequest(requests[next++ & 4095]);
+            server.dispatchPending(0);
+        }
+
+        @Override
+        public void moveCar(Random random) {
+            Elevator elevator = elevators[random.nextInt(elevators.length)];
+            elevator.setFloor(elevator.getFloor() == 1 ? 2 : 1);
+        }
+    }
+
+    /**
+     * A request queue; the producers hold off while the given number of
+     * requests is queued.
+     */
+    public static class RequestQueueTarget implements RequestQueueJmh.Target {
+        private static final PersonRequest request = new PersonRequest(1, 2, 1);
+        private final RequestQueue queue = new RequestQueue();
+        private final int bound;
+
+        RequestQueueTarget(Integer bound) {
+            this.bound = bound;
+        }
+
+        @Override
+        public Object addTake() {
+            queue.addRequest(request);
+            return queue.getRequest(0, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean produce() {
+            if (queue.size() >= bound) {
+                return false;
+            }
+            queue.addRequest(request);
+            return true;
+        }
+
+        @Override
+        public boolean consume() {
+            Request taken = queue.getRequest(1, TimeUnit.MILLISECONDS);
+            return taken != null;
+        }
+    }
+}
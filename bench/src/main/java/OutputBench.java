@@ -0,0 +1,109 @@
+import tools.Output;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * The time an elevator thread spends on an output line, printed synchronously
+ * or through the asynchronous writer.
+ * <p>
+ *     Each thread count runs in JVMs of its own, one per output mode, started
+ *     by this bench:
+ *     <pre>
+ *     java OutputBench 1 4 16
+ *     </pre>
+ *     The threads print ARRIVE/OPEN/IN/OUT/CLOSE lines as fast as they can
+ *     into a discarded STDOUT; one line per mode and thread count is printed
+ *     to STDERR with the nanoseconds a thread is held per line, and the
+ *     lines per second of the whole run(the writer's included).
+ * </p>
+ */
+public class OutputBench {
+    private static final int linesPerThread = 400_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("--run")) {
+            run(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        if (args.length == 0) {
+            args = new String[]{"1", "4", "16"};
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java";
+        for (String threads : args) {
+            for (String mode : new String[]{"sync", "async"}) {
+                ArrayList<String> command = new ArrayList<>();
+                command.add(java);
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add("OutputBench");
+                command.add("--run");
+                command.add(mode);
+                command.add(threads);
+                Process process = new ProcessBuilder(command).inheritIO().start();
+                if (process.waitFor() != 0) {
+                    throw new IllegalStateException(mode + " threads=" + threads + " failed");
+                }
+            }
+        }
+    }
+
+    private static void run(String mode, int threadNum) throws InterruptedException {
+        System.setProperty("elevator.output", mode);
+        System.setOut(new PrintStream(new Discard(), false));
+        Output.start();
+        produce(threadNum, linesPerThread / 4);  // warm-up
+        final long begin = System.nanoTime();
+        final long held = produce(threadNum, linesPerThread);
+        Output.shutdown();  // the lines still in the ring are written
+        final double seconds = (System.nanoTime() - begin) / 1e9;
+        final long lines = (long) threadNum * linesPerThread;
+        System.err.printf("output=%s threads=%d ns_per_line=%.0f lines_per_s=%.0f cores=%d%n",
+                mode, threadNum, (double) held / lines, lines / seconds,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the nanoseconds the threads spent printing, summed
+     */
+    private static long produce(int threadNum, int lines) throws InterruptedException {
+        long[] held = new long[threadNum];
+        Thread[] threads = new Thread[threadNum];
+        for (int t = 0; t < threadNum; t++) {
+            final int index = t;
+            final String eid = Integer.toString(t + 1);
+            threads[t] = new Thread(() -> {
+                final long begin = System.nanoTime();
+                for (int i = 0; i < lines; i += 5) {
+                    int floor = 1 + i % 11;
+                    Output.arrive(floor, eid);
+                    Output.open(floor, eid);
+                    Output.in(i, floor, eid);
+                    Output.out(i, floor, eid);
+                    Output.close(floor, eid);
+                }
+                held[index] = System.nanoTime() - begin;
+            });
+            threads[t].start();
+        }
+        long sum = 0;
+        for (int t = 0; t < threadNum; t++) {
+            threads[t].join();
+            sum += held[t];
+        }
+        return sum;
+    }
+
+    private static class Discard extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
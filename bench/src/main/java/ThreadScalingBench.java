@@ -0,0 +1,78 @@
+import com.oocourse.elevator3.PersonRequest;
+import com.oocourse.elevator3.TimableOutput;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Thread count and memory of running many buildings in one JVM.
+ * <p>
+ *     Each building is a ServerThread with its 6 elevators, fed a few random
+ *     passengers and then ended. The peak platform thread count and the peak
+ *     heap use are sampled while the buildings run. Run it once per mode:
+ *     <pre>
+ *     java -Delevator.threads=platform ThreadScalingBench 1 10 50 100
+ *     java -Delevator.threads=virtual  ThreadScalingBench 1 10 50 100
+ *     </pre>
+ *     The elevator output is discarded; results are printed to STDERR, one
+ *     line per building count.
+ * </p>
+ */
+public class ThreadScalingBench {
+    private static final int passengersPerBuilding = 12;
+
+    public static void main(String[] args) throws Exception {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        TimableOutput.initStartTimestamp();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+        System.err.printf("# mode=%s%n", Launcher.isVirtual() ? "virtual" : "platform");
+        for (String arg : args) {
+            final int buildings = Integer.parseInt(arg);
+            System.gc();
+            final long heapBefore = memoryBean.getHeapMemoryUsage().getUsed();
+            threadBean.resetPeakThreadCount();
+            final long begin = System.nanoTime();
+            Random random = new Random(buildings);
+            ArrayList<RequestQueue> queues = new ArrayList<>();
+            for (int i = 0; i < buildings; i++) {
+                RequestQueue requestQueue = new RequestQueue();
+                Launcher.start(new ServerThread(requestQueue));
+                queues.add(requestQueue);
+            }
+            int personId = 0;
+            for (RequestQueue requestQueue : queues) {
+                for (int i = 0; i < passengersPerBuilding; i++) {
+                    int from = 1 + random.nextInt(11);
+                    int to = 1 + (from + random.nextInt(10)) % 11;
+                    requestQueue.addRequest(new PersonRequest(from, to, personId++));
+                }
+                requestQueue.setEnd(true);
+            }
+            // sample the heap while running
+            long heapPeak = 0;
+            Thread waiter = new Thread(() -> {
+                try {
+                    Launcher.awaitAll();
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+            });
+            waiter.start();
+            while (waiter.isAlive()) {
+                heapPeak = Math.max(heapPeak, memoryBean.getHeapMemoryUsage().getUsed());
+                waiter.join(50);
+            }
+            System.err.printf("buildings=%d elevators=%d peak_threads=%d heap_peak_delta=%.1fMB"
+                            + " wall=%.1fs%n",
+                    buildings, buildings * 6, threadBean.getPeakThreadCount(),
+                    Math.max(heapPeak - heapBefore, 0) / 1048576.0,
+                    (System.nanoTime() - begin) / 1e9);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scheduling cost as the building grows beyond the course's 6 cars and 11
+ * floors.
+ * <p>
+ *     Each building is given as cars x floors. As the BuildingConfig is read
+ *     once per JVM, every building runs in a JVM of its own, started by this
+ *     bench with the same class path:
+ *     <pre>
+ *     java TowerScalingBench 6x11 20x60 40x120
+ *     </pre>
+ *     A building gets 25 random passengers a car, arriving over 50s, and runs
+ *     on the discrete-event engine; the first runs are warm-up. One line per
+ *     building is printed to STDERR: the dispatch CPU time per request, as
+ *     counted by DispatchStats, and the rest of the CPU time(the elevator
+ *     motions and the output) per output line.
+ * </p>
+ */
+public class TowerScalingBench {
+    private static final int passengersPerCar = 25;
+    private static final int arrivalSeconds = 50;
+    private static final int rounds = 3;  // the last one is measured
+    private static final Pattern cpuPerRequest = Pattern.compile("cpu_per_req=([0-9.]+)us");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--run")) {
+            runBuilding(args[1]);
+            return;
+        }
+        if (args.length == 0) {
+            args = new String[]{"6x11", "20x60", "40x120"};
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java";
+        for (String building : args) {
+            ArrayList<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("TowerScalingBench");
+            command.add("--run");
+            command.add(building);
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException("building " + building + " failed");
+            }
+        }
+    }
+
+    private static void runBuilding(String building) throws Exception {
+        final int cars = Integer.parseInt(building.substring(0, building.indexOf('x')));
+        final int floors = Integer.parseInt(building.substring(building.indexOf('x') + 1));
+        System.setProperty("elevator.cars", Integer.toString(cars));
+        System.setProperty("elevator.floors", "1-" + floors);
+        System.setProperty("elevator.dispatchStats", "true");
+        final byte[] trace = trace(cars, floors, new Random(cars * 1000L + floors));
+        final int requests = cars * passengersPerCar;
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        long cpuNanos = 0;
+        long lines = 0;
+        String stats = "";
+        for (int round = 0; round < rounds; round++) {
+            LineCounter counter = new LineCounter();
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(counter));
+            System.setErr(new PrintStream(report));
+            final long begin = threadBean.getCurrentThreadCpuTime();
+            new SimulationEngine(new ByteArrayInputStream(trace)).run();
+            cpuNanos = threadBean.getCurrentThreadCpuTime() - begin;
+            System.out.flush();
+            lines = counter.lines;
+            stats = report.toString();
+        }
+        System.setOut(out);
+        System.setErr(err);
+
+        Matcher matcher = cpuPerRequest.matcher(stats);
+        if (!matcher.find()) {
+            throw new IllegalStateException("no dispatch stats in: " + stats);
+        }
+        final double dispatchMicros = Double.parseDouble(matcher.group(1));
+        final double restNanos = Math.max(cpuNanos - dispatchMicros * 1e3 * requests, 0);
+        System.err.printf("cars=%d floors=%d requests=%d output_lines=%d"
+                        + " dispatch_cpu_per_req=%.1fus elevator_cpu_per_line=%.2fus"
+                        + " total_cpu=%.0fms%n",
+                cars, floors, requests, lines, dispatchMicros, restNanos / 1e3 / lines,
+                cpuNanos / 1e6);
+    }
+
+    private static byte[] trace(int cars, int floors, Random random) {
+        final int passengers = cars * passengersPerCar;
+        long[] times = new long[passengers];
+        for (int i = 0; i < passengers; i++) {
+            times[i] = (long) random.nextInt(arrivalSeconds * 10) * 100;  // in ms
+        }
+        Arrays.sort(times);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < passengers; i++) {
+            int from = 1 + random.nextInt(floors);
+            int to = 1 + (from + random.nextInt(floors - 1)) % floors;
+            builder.append(String.format("[%.1f]%d-FROM-%d-TO-%d%n",
+                    times[i] / 1000.0, i + 1, from, to));
+        }
+        return builder.toString().getBytes();
+    }
+
+    /**
+     * Discards the output, counting its lines.
+     */
+    private static class LineCounter extends OutputStream {
+        private long lines = 0;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+    }
+}
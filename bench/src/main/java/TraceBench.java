@@ -0,0 +1,113 @@
+import tools.Trace;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The cost of the elevator loop's debug events: as the strings formatted
+ * before the category lookup(the old Debugger), and as trace events with
+ * tracing off and on.
+ * <p>
+ *     Each mode runs in a JVM of its own, started by this bench, as the
+ *     enabled categories are fixed when Trace is loaded:
+ *     <pre>
+ *     java TraceBench
+ *     </pre>
+ *     One line per mode is printed to STDERR with the nanoseconds per loop
+ *     iteration(two events, reading a synchronized car like ElevatorThread).
+ * </p>
+ */
+public class TraceBench {
+    private static final int iterations = 20_000_000;
+    private static final HashMap<String, Boolean> infoSwitch = new HashMap<>();
+    private static final boolean debugOut = false;
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--run")) {
+            run(args[1]);
+            return;
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java";
+        for (String mode : new String[]{"strings", "off", "on"}) {
+            ArrayList<String> command = new ArrayList<>();
+            command.add(java);
+            if (mode.equals("on")) {
+                command.add("-Delevator.trace=elevator-thread");
+                command.add("-Delevator.traceFile=" + new File(
+                        System.getProperty("java.io.tmpdir"), "trace-bench.trace"));
+            }
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("TraceBench");
+            command.add("--run");
+            command.add(mode);
+            Process process = new ProcessBuilder(command).inheritIO().start();
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException(mode + " failed");
+            }
+        }
+    }
+
+    private static void run(String mode) {
+        infoSwitch.put("elevator thread", true);
+        Car car = new Car();
+        final boolean strings = mode.equals("strings");
+        loop(car, strings, iterations / 4);  // warm-up
+        final long begin = System.nanoTime();
+        loop(car, strings, iterations);
+        final double ns = (double) (System.nanoTime() - begin) / iterations;
+        System.err.printf("mode=%s ns_per_iteration=%.1f%n", mode, ns);
+    }
+
+    private static void loop(Car car, boolean strings, int num) {
+        final String eid = "3";
+        for (int i = 0; i < num; i++) {
+            car.floor = 1 + i % 11;
+            if (strings) {
+                dbgPrintln(String.format(
+                        "@Thread{ElevatorThread,eid=%s,dir=%s,cur_flr=%d,load=%d}: running",
+                        eid, car.getDirection(), car.getFloor(), car.getLoad()));
+                dbgPrintln(String.format(
+                        "@Thread{ElevatorThread,eid=%s,cmdemt=%s,svend=%s}: trying exiting",
+                        eid, car.isCommandEmpty(), false));
+            } else if (Trace.on(Trace.elevatorThread)) {
+                Trace.event(Trace.carLoop, Trace.eid(eid), car.getDirection().ordinal(),
+                        car.getFloor(), car.getLoad());
+                Trace.event(Trace.carTryExit, Trace.eid(eid),
+                        Trace.bool(car.isCommandEmpty()), 0);
+            }
+            sink += car.floor;
+        }
+    }
+
+    private static void dbgPrintln(Object o) {
+        if (infoSwitch.get("elevator thread") && debugOut) {
+            System.out.println(o);
+        }
+    }
+
+    private enum Direction { UP, DOWN, STAY }
+
+    private static class Car {
+        private int floor = 1;
+
+        synchronized Direction getDirection() {
+            return Direction.UP;
+        }
+
+        synchronized int getFloor() {
+            return floor;
+        }
+
+        synchronized int getLoad() {
+            return 2;
+        }
+
+        synchronized boolean isCommandEmpty() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * End-to-end runs of the whole simulator over a corpus of traces, one
+ * machine-readable record a run.
+ * <p>
+ *     The traces are the files of the given directories(or the files given),
+ *     e.g. written by tools.TrafficGenerator:
+ *     <pre>
+ *     java TraceCorpusBench traces/ engines=threads,des runs=3 seed=1 > results.jsonl
+ *     </pre>
+ *     Each trace runs the given times(1 by default) per engine, each run in a
+ *     JVM of its own, as the BuildingConfig and the metrics are set once per
+ *     JVM; the elevator.* properties given to this bench are passed on.
+ *     "threads" replays the trace in real time through TestMain, the full
+ *     threaded pipeline(input, server, elevator threads, output), so a run
+ *     takes as long as its trace; "des" runs Main on the virtual-time engine.
+ *     The output lines are counted and discarded. Run r is given the
+ *     elevator.seed seed + r - 1(seed 1 by default) for the dispatcher's
+ *     tie-break: a des run is repeated exactly by its seed, and a change is
+ *     judged on the same seeds before and after it.
+ * </p>
+ * <p>
+ *     A record is a JSON line on STDOUT: the trace, engine, run and seed; the
+ *     figures of Metrics.summary() (passengers finished and not, the completion time of
+ *     the last passenger, the wait and trip percentiles, the floors moved and
+ *     door cycles of all cars) and the passengers served a simulated minute;
+ *     then the wall time, the CPU time of the process and the bytes allocated
+ *     during the run, with the allocation rate over the wall time. The
+ *     allocation is sampled per thread every 10ms, so a thread's last 10ms
+ *     before it ends may be missed. A run that fails gives a record with
+ *     its "error".
+ * </p>
+ */
+public class TraceCorpusBench {
+    private static final long samplePeriodMillis = 10;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 5 && args[0].equals("--run")) {
+            runTrace(args[1], args[2], Integer.parseInt(args[3]), Long.parseLong(args[4]));
+            return;
+        }
+        ArrayList<File> traces = new ArrayList<>();
+        String[] engines = {"threads"};
+        int runs = 1;
+        long seed = 1;
+        for (String arg : args) {
+            if (arg.startsWith("engines=")) {
+                engines = arg.substring("engines=".length()).split(",");
+                continue;
+            }
+            if (arg.startsWith("runs=")) {
+                runs = Integer.parseInt(arg.substring("runs=".length()));
+                continue;
+            }
+            if (arg.startsWith("seed=")) {
+                seed = Long.parseLong(arg.substring("seed=".length()));
+                continue;
+            }
+            File file = new File(arg);
+            File[] files = file.isDirectory() ? file.listFiles(File::isFile) : new File[]{file};
+            if (files == null) {
+                throw new IllegalArgumentException("cannot list " + arg);
+            }
+            Arrays.sort(files);
+            traces.addAll(Arrays.asList(files));
+        }
+        if (traces.isEmpty()) {
+            System.err.println("usage: java TraceCorpusBench <trace dir or file>..."
+                    + " [engines=threads,des] [runs=1] [seed=1]");
+            System.exit(1);
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java";
+        for (File trace : traces) {
+            for (String engine : engines) {
+                for (int run = 1; run <= runs; run++) {
+                    System.out.println(runTraceProcess(java, trace, engine, run,
+                            seed + run - 1));
+                    System.out.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the record of one run, made by a JVM of its own
+     */
+    private static String runTraceProcess(String java, File trace, String engine, int run,
+                                          long seed) throws Exception {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(java);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("elevator.") && !name.equals("elevator.seed")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("TraceCorpusBench");
+        command.add("--run");
+        command.add(trace.getPath());
+        command.add(engine);
+        command.add(Integer.toString(run));
+        command.add(Long.toString(seed));
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String record = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                record = line;
+            }
+        }
+        final int status = process.waitFor();
+        if (status != 0 || record == null) {
+            record = String.format(
+                    "{\"trace\":%s,\"engine\":%s,\"run\":%d,\"seed\":%d,\"error\":\"exit %d\"}",
+                    quote(trace.getPath()), quote(engine), run, seed, status);
+        }
+        return record;
+    }
+
+    private static void runTrace(String trace, String engine, int run, long seed)
+            throws Exception {
+        if (!engine.equals("threads") && !engine.equals("des")) {
+            throw new IllegalArgumentException("engine: threads or des, not " + engine);
+        }
+        // the text report of Metrics isn't wanted, only its summary
+        File report = File.createTempFile("metrics", ".txt");
+        report.deleteOnExit();
+        System.setProperty("elevator.metricsFile", report.getPath());
+        System.setProperty("elevator.engine", engine);
+        System.setProperty("elevator.seed", Long.toString(seed));
+        // before TimableOutput keeps the stream
+        PrintStream out = System.out;
+        LineCounter counter = new LineCounter();
+        System.setOut(new PrintStream(counter));
+        System.setIn(new FileInputStream(trace));
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory
+                        .getOperatingSystemMXBean();
+        AllocationSampler sampler = new AllocationSampler();
+        Metrics.on();  // start its clock with the run
+        final long cpuBegin = os.getProcessCpuTime();
+        final long wallBegin = System.nanoTime();
+        sampler.start();
+        if (engine.equals("threads")) {
+            TestMain.main(new String[0]);
+        } else {
+            Main.main(new String[0]);
+        }
+        System.out.flush();
+        final long wall = System.nanoTime() - wallBegin;
+        final long cpu = os.getProcessCpuTime() - cpuBegin;
+        final long allocated = sampler.finish();
+        System.setOut(out);
+
+        StringBuilder record = new StringBuilder();
+        record.append("{\"trace\":").append(quote(trace))
+                .append(",\"engine\":").append(quote(engine))
+                .append(",\"run\":").append(run)
+                .append(",\"seed\":").append(seed);
+        Map<String, Number> summary = Metrics.summary();
+        for (Map.Entry<String, Number> entry : summary.entrySet()) {
+            append(record, entry.getKey(), entry.getValue());
+        }
+        final double completionMinutes = summary.get("completionMs").doubleValue() / 60e3;
+        append(record, "perMinute", completionMinutes > 0
+                ? summary.get("finished").longValue() / completionMinutes : 0);
+        append(record, "outputLines", counter.lines);
+        append(record, "wallMs", wall / 1e6);
+        append(record, "cpuMs", cpu / 1e6);
+        append(record, "allocatedMB", allocated / 1e6);
+        append(record, "allocMBPerS", allocated / 1e6 / (wall / 1e9));
+        record.append('}');
+        out.println(record);
+        out.flush();
+        // elevator threads of a failed run would keep the JVM alive
+        System.exit(0);
+    }
+
+    private static void append(StringBuilder record, String name, Number value) {
+        record.append(',').append(quote(name)).append(':');
+        if (value instanceof Double) {
+            record.append(String.format("%.3f", value.doubleValue()));
+        } else {
+            record.append(value);
+        }
+    }
+
+    private static String quote(String text) {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Sums the bytes allocated by every thread of the JVM, sampling them
+     * periodically, as the counter of a thread goes with it when it ends.
+     */
+    private static class AllocationSampler extends Thread {
+        private final com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final HashMap<Long, Long> begin = new HashMap<>();
+        private final HashMap<Long, Long> last = new HashMap<>();
+        private volatile boolean finished = false;
+
+        AllocationSampler() {
+            super("allocation-sampler");
+            setDaemon(true);
+            sample(begin);
+        }
+
+        private void sample(Map<Long, Long> into) {
+            final long[] ids = threadBean.getAllThreadIds();
+            final long[] bytes = threadBean.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    into.put(ids[i], bytes[i]);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!finished) {
+                sample(last);
+                try {
+                    Thread.sleep(samplePeriodMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the bytes allocated since the sampler was created, this
+         *         sampler's own excepted
+         */
+        long finish() throws InterruptedException {
+            finished = true;
+            interrupt();
+            join();
+            sample(last);
+            last.remove(getId());
+            long total = 0;
+            for (Map.Entry<Long, Long> entry : last.entrySet()) {
+                total += entry.getValue() - begin.getOrDefault(entry.getKey(), 0L);
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Discards the output, counting its lines.
+     */
+    private static class LineCounter extends OutputStream {
+        private long lines = 0;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+    }
+}
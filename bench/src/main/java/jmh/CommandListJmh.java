@@ -0,0 +1,57 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CommandList.nextCommand() and hasEntryInDirection() on tables of varied
+ * density: the share of floors holding an UP, DOWN or END entry. The list
+ * isn't thread safe(its car's lock guards it), so there's no contended run;
+ * see {@link ElevatorJmh}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandListJmh {
+    public interface Target {
+        Object nextCommand();
+
+        boolean hasEntryInDirection();
+    }
+
+    @Param({"11", "100"})
+    private int floors;
+    @Param({"0.05", "0.3", "0.9"})
+    private double density;
+
+    private Target target;
+
+    @Setup
+    public void setUp() {
+        target = Targets.load("CommandListTarget", Target.class, floors, density);
+    }
+
+    @Benchmark
+    public Object nextCommand() {
+        return target.nextCommand();
+    }
+
+    @Benchmark
+    public boolean hasEntryInDirection() {
+        return target.hasEntryInDirection();
+    }
+}
@@ -0,0 +1,82 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The server's scheduling of one person request(ServerThread taking it from
+ * its queue and giving it to a car through the Dispatcher) over fleets of 6
+ * to 100 cars, with either dispatch cost. The cars hold 4 requests each on
+ * average(see JmhTargets.DispatchTarget); the RECEIVE lines go to a
+ * discarded STDOUT.
+ * <p>
+ *     Uncontended, the server schedules alone; contended, two more threads
+ *     move random cars between floors 1 and 2 meanwhile, publishing their
+ *     state the way running elevators do.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class DispatchJmh {
+    public interface Target {
+        void schedule();
+
+        void moveCar(Random random);
+    }
+
+    @Param({"6", "20", "50", "100"})
+    private int cars;
+    @Param({"priority", "eta"})
+    private String cost;
+
+    private Target target;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        target = Targets.load("DispatchTarget", Target.class, cars, cost);
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    public void schedule() {
+        target.schedule();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedSchedule() {
+        target.schedule();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void moveCars(Mover mover) {
+        target.moveCar(mover.random);
+    }
+
+    @State(Scope.Thread)
+    public static class Mover {
+        private final Random random = new Random();
+    }
+}
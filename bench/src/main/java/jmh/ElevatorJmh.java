@@ -0,0 +1,73 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elevator.loadPassengers() and unloadPassengers(): a car takes six
+ * passengers at floor 1 and lets them out at floor 5. One operation is one
+ * passenger in and out, the IN/OUT lines included(into a discarded STDOUT).
+ * <p>
+ *     Uncontended, the trip is made alone; contended, three more threads ask
+ *     the car for its next direction and commands meanwhile, taking its lock
+ *     as the server and the other threads do.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ElevatorJmh {
+    private static final int passengers = 6;
+
+    public interface Target {
+        int trip();
+
+        int observe();
+    }
+
+    private Target target;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        target = Targets.load("ElevatorTarget", Target.class, passengers);
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @OperationsPerInvocation(passengers)
+    public int trip() {
+        return target.trip();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    @OperationsPerInvocation(passengers)
+    public int contendedTrip() {
+        return target.trip();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public int observe() {
+        return target.observe();
+    }
+}
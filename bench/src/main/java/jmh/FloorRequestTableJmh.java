@@ -0,0 +1,52 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FloorRequestTable.getFloorWaiters(): 64 waiters of a floor added and taken
+ * by a car of the given capacity, as many times as it takes to empty the
+ * floor. One operation is one waiter through the table. Like the command
+ * list, the table is guarded by its car's lock.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FloorRequestTableJmh {
+    private static final int waiterNum = 64;
+
+    public interface Target {
+        int addAndTake();
+    }
+
+    @Param({"6", "20"})
+    private int capacity;
+
+    private Target target;
+
+    @Setup
+    public void setUp() {
+        target = Targets.load("FloorRequestTableTarget", Target.class, waiterNum, capacity);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(waiterNum)
+    public int getFloorWaiters() {
+        return target.addAndTake();
+    }
+}
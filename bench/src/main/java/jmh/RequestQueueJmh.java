@@ -0,0 +1,110 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RequestQueue throughput: requests added by producers and taken by the
+ * single consumer, as the input and server threads do.
+ * <p>
+ *     Uncontended, one thread adds a request and takes it back. Contended,
+ *     one or three producer threads add requests while a consumer takes
+ *     them, parking when the queue is empty; the producers hold off while
+ *     65536 requests are queued, so the queue stays bounded. The "added" and
+ *     "taken" counters are the rates to read. The queue is built anew each
+ *     iteration.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class RequestQueueJmh {
+    private static final int bound = 1 << 16;
+
+    public interface Target {
+        Object addTake();
+
+        boolean produce();
+
+        boolean consume();
+    }
+
+    private Target target;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        target = Targets.load("RequestQueueTarget", Target.class, bound);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long added;
+        public long taken;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            added = 0;
+            taken = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    public Object addTake() {
+        return target.addTake();
+    }
+
+    @Benchmark
+    @Group("oneProducer")
+    @GroupThreads(1)
+    public void produce1(Counters counters) {
+        if (target.produce()) {
+            counters.added++;
+        }
+    }
+
+    @Benchmark
+    @Group("oneProducer")
+    @GroupThreads(1)
+    public void consume1(Counters counters) {
+        if (target.consume()) {
+            counters.taken++;
+        }
+    }
+
+    @Benchmark
+    @Group("threeProducers")
+    @GroupThreads(3)
+    public void produce3(Counters counters) {
+        if (target.produce()) {
+            counters.added++;
+        }
+    }
+
+    @Benchmark
+    @Group("threeProducers")
+    @GroupThreads(1)
+    public void consume3(Counters counters) {
+        if (target.consume()) {
+            counters.taken++;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package jmh;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Loads the code the benchmarks drive.
+ * <p>
+ *     JMH takes no benchmark in the default package, and a named package
+ *     can't refer to the simulator's classes, which are all in the default
+ *     package. So each benchmark drives a target: a class of JmhTargets(in
+ *     the default package, next to the simulator) implementing the
+ *     benchmark's Target interface, created here by name. Only one class
+ *     implements each interface, so the JIT inlines the calls as if direct.
+ * </p>
+ */
+public final class Targets {
+    private Targets() {
+    }
+
+    public static <T> T load(String name, Class<T> type, Object... args) {
+        try {
+            Class<?> target = Class.forName("JmhTargets$" + name);
+            for (Constructor<?> constructor : target.getDeclaredConstructors()) {
+                if (constructor.getParameterCount() == args.length) {
+                    constructor.setAccessible(true);
+                    return type.cast(constructor.newInstance(args));
+                }
+            }
+            throw new IllegalArgumentException(name + ": no constructor of " + args.length
+                    + " arguments");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot create target " + name, e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.Arrays;
+
+/**
+ * A Hungarian(Kuhn-Munkres) solver for the rectangular assignment problem.
+ * <p>
+ *     Given an n*m cost matrix with n &lt;= m, it picks one distinct column for
+ *     every row so that the total cost is minimal, in O(n*n*m) time.
+ * </p>
+ */
+public class AssignmentSolver {
+    private AssignmentSolver() {}
+
+    /**
+     * @param cost  the cost matrix, cost[row][col], with rows &lt;= columns
+     * @return      the column assigned to each row
+     */
+    public static int[] solve(long[][] cost) {
+        final int n = cost.length;
+        if (n == 0) {
+            return new int[0];
+        }
+        final int m = cost[0].length;
+        assert n <= m;
+        // 1-based potentials and matching, column 0 is a virtual start
+        long[] u = new long[n + 1];
+        long[] v = new long[m + 1];
+        int[] match = new int[m + 1];  // row matched to each column, 0 if free
+        int[] way = new int[m + 1];
+        long[] minv = new long[m + 1];
+        boolean[] used = new boolean[m + 1];
+        for (int i = 1; i <= n; i++) {
+            match[0] = i;
+            int col0 = 0;
+            Arrays.fill(minv, Long.MAX_VALUE);
+            Arrays.fill(used, false);
+            do {
+                used[col0] = true;
+                int row0 = match[col0];
+                long delta = Long.MAX_VALUE;
+                int col1 = 0;
+                for (int j = 1; j <= m; j++) {
+                    if (used[j]) {
+                        continue;
+                    }
+                    long cur = cost[row0 - 1][j - 1] - u[row0] - v[j];
+                    if (cur < minv[j]) {
+                        minv[j] = cur;
+                        way[j] = col0;
+                    }
+                    if (minv[j] < delta) {
+                        delta = minv[j];
+                        col1 = j;
+                    }
+                }
+                for (int j = 0; j <= m; j++) {
+                    if (used[j]) {
+                        u[match[j]] += delta;
+                        v[j] -= delta;
+                    } else {
+                        minv[j] -= delta;
+                    }
+                }
+                col0 = col1;
+            } while (match[col0] != 0);
+            // flip the augmenting path
+            do {
+                int col1 = way[col0];
+                match[col0] = match[col1];
+                col0 = col1;
+            } while (col0 != 0);
+        }
+        int[] ret = new int[n];
+        for (int j = 1; j <= m; j++) {
+            if (match[j] != 0) {
+                ret[match[j] - 1] = j - 1;
+            }
+        }
+        return ret;
+    }
+}
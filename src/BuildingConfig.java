@@ -0,0 +1,180 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+// thread safe: immutable, loaded once at startup
+
+/**
+ * The building model: floors, shafts, cars and their timing.
+ * <p>
+ *     The defaults are the course building: floors 1 to 11, 6 single-car
+ *     shafts, 6 passengers a car, 400ms a floor and 200ms for each door
+ *     motion. Every value can be given in a properties file, named by
+ *     {@code -Delevator.building=<path>}, and a system property of the same
+ *     key overrides the file:
+ *     <pre>
+ *     elevator.floors=1-60
+ *     elevator.cars=20
+ *     elevator.capacity=8
+ *     elevator.moveTime=400
+ *     elevator.openTime=200
+ *     elevator.closeTime=200
+ *     elevator.resetTime=1200
+ *     elevator.doubleCars=3:30,4:30
+ *     </pre>
+ *     doubleCars lists the shafts(ids from 1) which start as double-car
+ *     shafts, each with its transfer floor.
+ * </p>
+ * <p>
+ *     A bad value is reported as an IllegalArgumentException at startup.
+ * </p>
+ */
+public class BuildingConfig {
+    private static final BuildingConfig config = load();
+
+    private final int minFloor;
+    private final int maxFloor;
+    private final int carNum;
+    private final int capacity;
+    private final int moveTime;
+    private final int openTime;
+    private final int closeTime;
+    private final int resetTime;
+    private final int[] transFloors;  // indexed by shaft id, 0 for a single-car shaft
+
+    private BuildingConfig(Properties properties) {
+        String floors = value(properties, "elevator.floors", "1-11");
+        int dash = floors.indexOf('-', 1);
+        if (dash < 0) {
+            throw new IllegalArgumentException(
+                    "elevator.floors: expected <min>-<max>, got " + floors);
+        }
+        minFloor = parse("elevator.floors", floors.substring(0, dash).trim());
+        maxFloor = parse("elevator.floors", floors.substring(dash + 1).trim());
+        if (minFloor < 1 || maxFloor - minFloor < 1) {
+            throw new IllegalArgumentException("elevator.floors: bad range " + floors);
+        }
+        carNum = positive(properties, "elevator.cars", 6);
+        capacity = positive(properties, "elevator.capacity", 6);
+        moveTime = positive(properties, "elevator.moveTime", 400);
+        openTime = positive(properties, "elevator.openTime", 200);
+        closeTime = positive(properties, "elevator.closeTime", 200);
+        resetTime = positive(properties, "elevator.resetTime", 1200);
+        transFloors = new int[carNum + 1];
+        String doubleCars = value(properties, "elevator.doubleCars", "").trim();
+        if (!doubleCars.isEmpty()) {
+            for (String pair : doubleCars.split(",")) {
+                String[] parts = pair.trim().split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException(
+                            "elevator.doubleCars: expected <shaft>:<transfer floor>, got " + pair);
+                }
+                int shaft = parse("elevator.doubleCars", parts[0].trim());
+                int transFloor = parse("elevator.doubleCars", parts[1].trim());
+                if (shaft < 1 || shaft > carNum) {
+                    throw new IllegalArgumentException("elevator.doubleCars: no shaft " + shaft);
+                }
+                // each car must have a floor of its own besides the transfer floor
+                if (transFloor <= minFloor || transFloor >= maxFloor) {
+                    throw new IllegalArgumentException(
+                            "elevator.doubleCars: transfer floor out of range " + transFloor);
+                }
+                transFloors[shaft] = transFloor;
+            }
+        }
+    }
+
+    private static BuildingConfig load() {
+        Properties properties = new Properties();
+        String path = System.getProperty("elevator.building");
+        if (path != null) {
+            try (InputStream in = new FileInputStream(path)) {
+                properties.load(in);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("elevator.building: can't read " + path, e);
+            }
+        }
+        return new BuildingConfig(properties);
+    }
+
+    public static BuildingConfig get() {
+        return config;
+    }
+
+    private static String value(Properties properties, String key, String defaultValue) {
+        return System.getProperty(key, properties.getProperty(key, defaultValue));
+    }
+
+    private static int parse(String key, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + ": not a number " + value);
+        }
+    }
+
+    private static int positive(Properties properties, String key, int defaultValue) {
+        int value = parse(key, value(properties, key, Integer.toString(defaultValue)).trim());
+        if (value <= 0) {
+            throw new IllegalArgumentException(key + ": must be positive, got " + value);
+        }
+        return value;
+    }
+
+    public int getMinFloor() {
+        return minFloor;
+    }
+
+    public int getMaxFloor() {
+        return maxFloor;
+    }
+
+    public int getCarNum() {
+        return carNum;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMoveTime() {
+        return moveTime;
+    }
+
+    public int getOpenTime() {
+        return openTime;
+    }
+
+    public int getCloseTime() {
+        return closeTime;
+    }
+
+    public int getResetTime() {
+        return resetTime;
+    }
+
+    /**
+     * @return the transfer floor of the shaft if it starts as a double-car
+     * shaft, or 0
+     */
+    public int getTransFloor(int shaft) {
+        return transFloors[shaft];
+    }
+
+    /**
+     * @return if the floors and shafts are the course's, the only building
+     * ElevatorInput checks requests against
+     */
+    public boolean isCourseBuilding() {
+        return minFloor == 1 && maxFloor == 11 && carNum == 6;
+    }
+
+    /**
+     * @return the shaft id of an elevator id, "3" for "3", "3-A" and "3-B"
+     */
+    public static String shaftOf(String eid) {
+        int dash = eid.indexOf('-');
+        return dash < 0 ? eid : eid.substring(0, dash);
+    }
+}
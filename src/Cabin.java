@@ -0,0 +1,106 @@
+import com.oocourse.elevator3.PersonRequest;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+
+// not thread safe: guarded by the lock of the owning Elevator
+
+/**
+ * The passengers on board an elevator, grouped by their destination floor.
+ * <p>
+ *     The floors someone is going to are kept as a bitmask, so asking if
+ *     anyone gets off at a floor is O(1), and unloading a floor touches only
+ *     the passengers getting off there. The ParaRequests on board, i.e. the
+ *     first legs of transfers, are counted as they board and leave.
+ * </p>
+ */
+public class Cabin {
+    private final ArrayList<PersonRequest>[] riders;  // indexed by destination floor
+    private final BitSet destinations = new BitSet();
+    private int size = 0;
+    private int paraNum = 0;
+
+    Cabin(int maxFloor) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayList<PersonRequest>[] lists = new ArrayList[maxFloor + 1];
+        riders = lists;
+        for (int i = 0; i <= maxFloor; i++) {
+            riders[i] = new ArrayList<>();
+        }
+    }
+
+    public void add(PersonRequest passenger) {
+        riders[passenger.getToFloor()].add(passenger);
+        destinations.set(passenger.getToFloor());
+        size++;
+        if (passenger instanceof ParaRequest) {
+            paraNum++;
+        }
+    }
+
+    public void addAll(Collection<PersonRequest> passengers) {
+        for (PersonRequest passenger : passengers) {
+            add(passenger);
+        }
+    }
+
+    public boolean hasDestination(int floor) {
+        return destinations.get(floor);
+    }
+
+    /**
+     * @return the floors someone on board is going to; not to be modified
+     */
+    public BitSet getDestinations() {
+        return destinations;
+    }
+
+    /**
+     * @return how many passengers get off at the floor
+     */
+    public int getRiderNum(int floor) {
+        return riders[floor].size();
+    }
+
+    /**
+     * Take out the passengers getting off at the floor.
+     * @param to    where the passengers are appended, in boarding order
+     */
+    public void unload(int floor, ArrayList<PersonRequest> to) {
+        ArrayList<PersonRequest> list = riders[floor];
+        if (list.isEmpty()) {
+            return;
+        }
+        for (PersonRequest passenger : list) {
+            if (passenger instanceof ParaRequest) {
+                paraNum--;
+            }
+        }
+        to.addAll(list);
+        size -= list.size();
+        list.clear();
+        destinations.clear(floor);
+    }
+
+    /**
+     * Take out every passenger, in floor order.
+     */
+    public void unloadAll(ArrayList<PersonRequest> to) {
+        for (int i = destinations.nextSetBit(0); i >= 0; i = destinations.nextSetBit(i + 1)) {
+            to.addAll(riders[i]);
+            riders[i].clear();
+        }
+        destinations.clear();
+        size = 0;
+        paraNum = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean hasParaReq() {
+        return paraNum > 0;
+    }
+}
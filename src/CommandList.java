@@ -1,11 +1,8 @@
 import com.oocourse.elevator3.PersonRequest;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.BitSet;
 
-// thread safe
+// not thread safe: guarded by the lock of the owning Elevator
 
 /**
  * As part of the single-elevator control algorithm, the command list conserves
@@ -15,7 +12,7 @@ import java.util.Iterator;
  */
 public class CommandList {
     /**
-     * A table of command table entries listed in their own floor. This is the
+     * The command table, kept as one floor bitmask per entry kind. This is the
      * key data structure of command list.
      * <p>
      *     The command table illustrates the elevator's current tasks, and
@@ -23,10 +20,20 @@ public class CommandList {
      *     It is dynamically modified by new requests, and the elevator's signal
      *     of completion of its tasks.
      * </p>
+     * <p>
+     *     Bit i of a mask is set if floor i has an entry of the kind, so the
+     *     nearest or farthest entry in a direction is found by a bit scan
+     *     instead of walking the floors. The next destinations of the UP and
+     *     DOWN entries on a floor are kept as a mask of floors as well.
+     * </p>
      *
      * @see CommandTableEntry
      */
-    private final HashMap<Integer, HashSet<CommandTableEntry>> commandTable;
+    private final BitSet upEntries = new BitSet();
+    private final BitSet downEntries = new BitSet();
+    private final BitSet endEntries = new BitSet();
+    private final BitSet[] upDestinations;  // indexed by floor
+    private final BitSet[] downDestinations;  // indexed by floor
     private boolean reset = false;
     private int resetLoad;
     private int resetSpeed;
@@ -38,19 +45,24 @@ public class CommandList {
     CommandList(int minFloor, int maxFloor) {
         this.minFloor = minFloor;
         this.maxFloor = maxFloor;
-        commandTable = new HashMap<>();
+        upDestinations = new BitSet[maxFloor + 1];
+        downDestinations = new BitSet[maxFloor + 1];
         for (int i = minFloor; i <= maxFloor; i++) {
-            commandTable.put(i, new HashSet<>());
+            upDestinations[i] = new BitSet();
+            downDestinations[i] = new BitSet();
         }
         end = false;
     }
 
-    public synchronized void reset() {
-        for (HashSet<CommandTableEntry> hashSet : commandTable.values()) {
-            hashSet.clear();
+    public void reset() {
+        upEntries.clear();
+        downEntries.clear();
+        endEntries.clear();
+        for (int i = minFloor; i <= maxFloor; i++) {
+            upDestinations[i].clear();
+            downDestinations[i].clear();
         }
         reset = false;
-        notifyAll();
     }
 
     /**
@@ -61,7 +73,7 @@ public class CommandList {
      *                      the elevator is full and won't stop on any command
      * @return              the next command which the elevator should carry out
      */
-    public synchronized Command nextCommand(
+    public Command nextCommand(
             int floor, Elevator.Direction direction, boolean jumpCurrent) {
         if (reset) { return new Command(true, resetLoad, resetSpeed, resetTransFloor); }
         //    Algorithm
@@ -118,7 +130,6 @@ public class CommandList {
         } else {
             return null;  // the table is empty
         }
-        notifyAll();
         return new Command(destination, 0);
     }
 
@@ -140,86 +151,84 @@ public class CommandList {
      * @return              a boolean value indicating if there is a valid CTE in
      * the given direction
      */
-    public synchronized boolean hasEntryInDirection(int floor, Elevator.Direction direction) {
+    public boolean hasEntryInDirection(int floor, Elevator.Direction direction) {
         // NOTE: direction STAY invalid
         if (direction == Elevator.Direction.STAY) {
             return false;  // direction STAY ambiguous, assert false
         }
         int dirFlag = direction == Elevator.Direction.UP ? 1 : -1;
         // if there's an entry in the direction(cur floor excluded)
-        for (int i = floor; i >= minFloor && i <= maxFloor; i += dirFlag) {
-            if ((i != floor) && (!commandTable.get(i).isEmpty())) {
-                return true;
-            }
+        if (nearest(upEntries, floor, dirFlag, true) != -1
+                || nearest(downEntries, floor, dirFlag, true) != -1
+                || nearest(endEntries, floor, dirFlag, true) != -1) {
+            return true;
         }
         // if the current floor's entry could generate an END entry later
-        for (CommandTableEntry entry : commandTable.get(floor)) {
-            if (entry.getDirection() == CommandTableEntry.Direction.END) {
-                continue;  // END entry can't create a new entry
-            }
-            int dir = entry.getDirection() == CommandTableEntry.Direction.UP ? 1 : -1;
-            if (dir == dirFlag) {
-                return true;
-            }
-        }
-        notifyAll();
-        return false;
+        return (dirFlag == 1 ? upEntries : downEntries).get(floor);
     }
 
     // -1 indicates no entry found
-    private synchronized int lookingLength(
+    private int lookingLength(
             boolean shortest, int startFloor, int dirFlag,
             CommandTableEntry.Direction targetDir, boolean jumpCurrent
     ) {
-        int last = -1;
         assert dirFlag != 0;
-        for (int i = startFloor; i >= minFloor && i <= maxFloor; i += dirFlag) {
-            for (CommandTableEntry entry : commandTable.get(i)) {
-                if (entry.getDirection() == targetDir) {
-                    if (jumpCurrent) {
-                        if (i == startFloor) {
-                            continue;
-                        }
-                    }
-                    // refresh `last`
-                    last = dirFlag * (i - startFloor);
-                    if (shortest) {
-                        notifyAll();
-                        return last;
-                    }
+        BitSet entries = targetDir == CommandTableEntry.Direction.UP ? upEntries
+                : targetDir == CommandTableEntry.Direction.DOWN ? downEntries : endEntries;
+        int found = shortest
+                ? nearest(entries, startFloor, dirFlag, jumpCurrent)
+                : farthest(entries, startFloor, dirFlag, jumpCurrent);
+        return found == -1 ? -1 : dirFlag * (found - startFloor);
+    }
 
-                }
-            }
+    /**
+     * @return the first floor with a set bit from the start floor on to the
+     * direction, or -1 if there's none in the range
+     */
+    private int nearest(BitSet entries, int startFloor, int dirFlag, boolean jumpCurrent) {
+        if (startFloor < minFloor || startFloor > maxFloor) {
+            return -1;
         }
-        notifyAll();
-        if (!shortest) {
-            return last;
+        int from = jumpCurrent ? startFloor + dirFlag : startFloor;
+        int found;
+        if (dirFlag == 1) {
+            found = from > maxFloor ? -1 : entries.nextSetBit(from);
+            return found > maxFloor ? -1 : found;
         } else {
-            return -1;
+            found = from < minFloor ? -1 : entries.previousSetBit(from);
+            return found < minFloor ? -1 : found;
         }
     }
 
-    public synchronized boolean isEmpty() {
-        boolean ret = true;
-        for (HashSet<CommandTableEntry> hashSet : commandTable.values()) {
-            if (!hashSet.isEmpty()) {
-                ret = false;
-                break;
-            }
+    /**
+     * @return the last floor with a set bit from the start floor on to the
+     * direction, or -1 if there's none in the range
+     */
+    private int farthest(BitSet entries, int startFloor, int dirFlag, boolean jumpCurrent) {
+        if (startFloor < minFloor || startFloor > maxFloor) {
+            return -1;
+        }
+        int from = jumpCurrent ? startFloor + dirFlag : startFloor;
+        int found;
+        if (dirFlag == 1) {
+            found = entries.previousSetBit(maxFloor);
+            return found < from ? -1 : found;
+        } else {
+            found = entries.nextSetBit(minFloor);
+            return found == -1 || found > from ? -1 : found;
         }
-        ret &= !reset;
-        notifyAll();
-        return ret;
     }
 
-    public synchronized boolean isEnd() {
-        notifyAll();
+    public boolean isEmpty() {
+        return upEntries.isEmpty() && downEntries.isEmpty() && endEntries.isEmpty() && !reset;
+    }
+
+    public boolean isEnd() {
         return end;
     }
 
-    public synchronized void setEnd(boolean isEnd) {
+    public void setEnd(boolean isEnd) {
         end = isEnd;
-        notifyAll();
     }
 
     /**
@@ -234,98 +243,66 @@ public class CommandList {
      *                direction state!
      * @param jump    indicates an overflow happened in loading, and thus not clearing
      *                the command
+     * @param passengers the passengers on board, loading at the floor done
      */
-    public synchronized void removeCurCommand(int floor, int dirFlag, boolean jump,
-                                              HashSet<PersonRequest> passengers) {
-        HashSet<CommandTableEntry> hashSet = commandTable.get(floor);
-        Iterator<CommandTableEntry> iterator = hashSet.iterator();
-        CommandTableEntry entry;
-        while (iterator.hasNext()) {
-            entry = iterator.next();
-            switch (entry.getDirection()) {
-                case END:  // simply delete an END entry, has nothing to do with dirFlag!
-                    iterator.remove(); // jump flag won't affect unloading
-                    break;
-                // for a non-END entry, only process it when of the same direction
-                case UP:
-                    // create a new entry of END, and remove
-                    if (dirFlag != -1) {
-                        boolean createEndEntry = false;
-                        // search in passengers for any whose destination is identical
-                        // to the entry's
-                        for (PersonRequest passenger : passengers) {
-                            if (passenger.getToFloor() == entry.getNextDestination()) {
-                                createEndEntry = true;
-                                break;
-                            }
-                        }
-                        if (createEndEntry) {
-                            addEntry(
-                                    entry.getNextDestination(),
-                                    new CommandTableEntry(CommandTableEntry.Direction.END, 0)
-                            );
-                        }
-                        if (!jump) {
-                            iterator.remove();
-                            // if overloaded(on the specific direction), at least one command
-                            // still exist, so we can clear the loaded commands later together
-                            // with the ones not loaded yet when the elevator comes again.
-                        }
-                    }
-                    break;
-                case DOWN:
-                    // same as UP
-                    if (dirFlag != 1) {
-                        boolean createEndEntry = false;
-                        // search in passengers for any whose destination is identical
-                        // to the entry's
-                        for (PersonRequest passenger : passengers) {
-                            if (passenger.getToFloor() == entry.getNextDestination()) {
-                                createEndEntry = true;
-                                break;
-                            }
-                        }
-                        if (createEndEntry) {
-                            addEntry(
-                                    entry.getNextDestination(),
-                                    new CommandTableEntry(CommandTableEntry.Direction.END, 0)
-                            );
-                        }
-                        if (!jump) {
-                            iterator.remove();
-                        }
-                    }
-                    break;
-                default:
+    public void removeCurCommand(int floor, int dirFlag, boolean jump, Cabin passengers) {
+        // simply delete an END entry, has nothing to do with dirFlag! jump flag won't
+        // affect unloading
+        endEntries.clear(floor);
+        // for a non-END entry, only process it when of the same direction
+        if (dirFlag != -1 && upEntries.get(floor)) {
+            removeStartEntries(floor, upEntries, upDestinations[floor], jump, passengers);
+        }
+        if (dirFlag != 1 && downEntries.get(floor)) {
+            removeStartEntries(floor, downEntries, downDestinations[floor], jump, passengers);
+        }
+    }
+
+    /**
+     * Create an END entry for each of the floor's UP or DOWN entries whose next
+     * destination is that of any passenger, and remove them unless jumping.
+     */
+    private void removeStartEntries(int floor, BitSet entries, BitSet destinations,
+                                    boolean jump, Cabin passengers) {
+        // search in passengers for any whose destination is identical to the entry's
+        BitSet riding = passengers.getDestinations();
+        for (int i = riding.nextSetBit(0); i >= 0; i = riding.nextSetBit(i + 1)) {
+            if (destinations.get(i)) {
+                endEntries.set(i);
             }
         }
-        notifyAll();
+        if (!jump) {
+            destinations.clear();
+            entries.clear(floor);
+            // if overloaded(on the specific direction), at least one command
+            // still exist, so we can clear the loaded commands later together
+            // with the ones not loaded yet when the elevator comes again.
+        }
     }
 
-    public synchronized void addEntry(PersonRequest request) {
+    public void addEntry(PersonRequest request) {
         // create CTE from the request
         CommandTableEntry cte = requestToCte(request);
         addEntry(request.getFromFloor(), cte);
-        notifyAll();
     }
 
-    public synchronized void addEntry(int floor, CommandTableEntry cte) {
-        // look for identical CTE in the from_floor
-        boolean match = false;
-        for (CommandTableEntry entry : commandTable.get(floor)) {
-            if (entry.equals(cte)) {
-                match = true;
+    public void addEntry(int floor, CommandTableEntry cte) {
+        // an identical CTE is the same bit, so adding it again changes nothing
+        switch (cte.getDirection()) {
+            case UP:
+                upDestinations[floor].set(cte.getNextDestination());
+                upEntries.set(floor);
                 break;
-            }
-        }
-        // if there isn't any, add the new one to the from_floor
-        if (!match) {
-            commandTable.get(floor).add(cte);
+            case DOWN:
+                downDestinations[floor].set(cte.getNextDestination());
+                downEntries.set(floor);
+                break;
+            default:
+                endEntries.set(floor);
         }
-        notifyAll();
     }
 
-    private synchronized CommandTableEntry requestToCte(PersonRequest request) {
+    private CommandTableEntry requestToCte(PersonRequest request) {
         CommandTableEntry.Direction direction;
         if (request.getFromFloor() > request.getToFloor()) {
             direction = CommandTableEntry.Direction.DOWN;
@@ -334,47 +311,55 @@ public class CommandList {
         } else {
             direction = CommandTableEntry.Direction.END;
         }
-        notifyAll();
         return new CommandTableEntry(direction, request.getToFloor());
     }
 
     @Override
-    public synchronized String toString() {
+    public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("@CommandList{\n");
         for (int i = minFloor; i <= maxFloor; i++) {
             sb.append(i).append(": ");
-            for (CommandTableEntry c : commandTable.get(i)) {
-                sb.append(c.toString());
+            appendEntries(sb, upDestinations[i], CommandTableEntry.Direction.UP);
+            appendEntries(sb, downDestinations[i], CommandTableEntry.Direction.DOWN);
+            if (endEntries.get(i)) {
+                sb.append(new CommandTableEntry(CommandTableEntry.Direction.END, 0));
             }
             sb.append("\n");
         }
         sb.append("}");
-        notifyAll();
         return sb.toString();
     }
 
-    public synchronized void addReset(int capacity, double speed, int transferFloor) {
+    public void addReset(int capacity, double speed, int transferFloor) {
         this.reset = true;
         this.resetLoad = capacity;
         this.resetSpeed = (int) (speed * 1000);
         this.resetTransFloor = transferFloor;
-        notifyAll();
     }
 
-    public synchronized boolean isReset() {
-        notifyAll();
+    public boolean isReset() {
         return reset;
     }
 
-    public synchronized void setRange(int min, int max) {
+    public void setRange(int min, int max) {
         for (int i = minFloor; i <= maxFloor; i++) {
             if (i < min || i > max) {
-                commandTable.remove(i);
+                upEntries.clear(i);
+                downEntries.clear(i);
+                endEntries.clear(i);
+                upDestinations[i].clear();
+                downDestinations[i].clear();
             }
         }
         minFloor = min;
         maxFloor = max;
-        notifyAll();
+    }
+
+    private void appendEntries(StringBuilder sb, BitSet destinations,
+                               CommandTableEntry.Direction direction) {
+        for (int i = destinations.nextSetBit(0); i >= 0; i = destinations.nextSetBit(i + 1)) {
+            sb.append(new CommandTableEntry(direction, i));
+        }
     }
 }
@@ -0,0 +1,233 @@
+import com.oocourse.elevator3.PersonRequest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+// thread safe
+
+/**
+ * The store of person requests no elevator can take at the moment, indexed by
+ * their from-floor and direction.
+ * <p>
+ *     When an elevator changes its direction, it reports its floor, where it's
+ *     going next and its serving range; only the requests it can pick up from
+ *     there are released to the request queue, the rest stay deferred:
+ *     <ul>
+ *         <li>going up(dirFlag 1): from-floor above the elevator;</li>
+ *         <li>going down(dirFlag -1): from-floor below the elevator;</li>
+ *         <li>idle(dirFlag 0): any from-floor;</li>
+ *     </ul>
+ *     in all cases with both floors of the request in the elevator's range.
+ *     When the ranges change(a double-car reset), everything is released, as
+ *     a request may be covered by no car any more.
+ * </p>
+ * <p>
+ *     The requests the route planner found no route for are kept apart: they
+ *     fit no single car, so no range can tell when to try them again. They
+ *     are released on every direction change, whatever the car, as one may
+ *     have become operable(the end of a reset).
+ * </p>
+ * <p>
+ *     A car may change between the moment a scheduler reads it and the moment
+ *     the scheduler defers the request, and the release of that change would
+ *     be missed. So the releases are counted, and a request is deferred only
+ *     if no release came since the count the scheduler took before reading
+ *     the cars; otherwise the scheduler tries it again at once.
+ * </p>
+ * <p>
+ *     Each person's deferrals are counted until the person leaves the
+ *     scheduling for good(see {@link #settle}), when the count goes to a
+ *     histogram: a request released and deferred again and again shows up as
+ *     a long tail there.
+ * </p>
+ */
+public class DeferredStore {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int minFloor;
+    private final int maxFloor;
+    // waiters[floor - minFloor][0 for UP, 1 for DOWN], in deferring order
+    private final ArrayDeque<PersonRequest>[][] waiters;
+    private final ArrayDeque<PersonRequest> unrouted = new ArrayDeque<>();
+    private int size = 0;  // unrouted ones included
+    private volatile long releases = 0;  // calls to release(), written under the lock
+    // deferrals of each person(by id) not settled yet: only the persons
+    // between the store and a car are kept, a long trace doesn't grow it
+    private final HashMap<Integer, Integer> deferrals = new HashMap<>();
+    // deferrals per settled person, exact below 32
+    private final LatencyHistogram settledDeferrals = new LatencyHistogram("deferrals");
+    private long totalDeferrals = 0;
+    private long totalReleased = 0;
+    private int peakSize = 0;  // the most requests deferred at once
+
+    public DeferredStore(int minFloor, int maxFloor) {
+        this.minFloor = minFloor;
+        this.maxFloor = maxFloor;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<PersonRequest>[][] table = new ArrayDeque[maxFloor - minFloor + 1][2];
+        waiters = table;
+        for (ArrayDeque<PersonRequest>[] floorWaiters : waiters) {
+            floorWaiters[0] = new ArrayDeque<>();
+            floorWaiters[1] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @return the number of releases so far, to be taken before reading the
+     *         cars a request may be deferred for
+     */
+    public long getReleases() {
+        return releases;
+    }
+
+    /**
+     * Keep a request until a car can pick it up.
+     * @param since the number of releases before the cars were read
+     * @return      false if a release came since: the request isn't deferred
+     */
+    public boolean defer(PersonRequest request, long since) {
+        int dir = request.getFromFloor() < request.getToFloor() ? 0 : 1;
+        lock.lock();
+        try {
+            if (releases != since) {
+                return false;
+            }
+            waiters[request.getFromFloor() - minFloor][dir].add(request);
+            size++;
+            totalDeferrals++;
+            deferrals.merge(request.getPersonId(), 1, Integer::sum);
+            peakSize = Math.max(peakSize, size);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keep a request no route could be planned for, until any car changes its
+     * direction.
+     * @param since the number of releases before the cars were read
+     * @return      false if a release came since: the request isn't deferred
+     */
+    public boolean deferUnrouted(PersonRequest request, long since) {
+        lock.lock();
+        try {
+            if (releases != since) {
+                return false;
+            }
+            unrouted.add(request);
+            size++;
+            totalDeferrals++;
+            deferrals.merge(request.getPersonId(), 1, Integer::sum);
+            peakSize = Math.max(peakSize, size);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take out the requests an elevator can pick up after changing direction,
+     * and every unrouted one.
+     * @param floor     the floor the elevator is at
+     * @param dirFlag   where the elevator is going next: 1, -1, or 0 if idle
+     * @param min       the lowest floor the elevator serves
+     * @param max       the highest floor the elevator serves
+     * @return          the released requests: the unrouted ones, then in floor
+     *                  order along dirFlag
+     */
+    public ArrayList<PersonRequest> release(int floor, int dirFlag, int min, int max) {
+        ArrayList<PersonRequest> released = new ArrayList<>();
+        lock.lock();
+        try {
+            releases++;
+            if (size == 0) {
+                return released;
+            }
+            released.addAll(unrouted);
+            unrouted.clear();
+            int begin = Math.max(min, minFloor);
+            int end = Math.min(max, maxFloor);
+            if (dirFlag == 1) {
+                begin = Math.max(begin, floor + 1);
+            } else if (dirFlag == -1) {
+                end = Math.min(end, floor - 1);
+            }
+            // the elevator's own direction first
+            int first = dirFlag == -1 ? 1 : 0;
+            for (int i = begin; i <= end; i++) {
+                int flr = dirFlag == -1 ? end - (i - begin) : i;
+                releaseFloor(waiters[flr - minFloor][first], min, max, released);
+                releaseFloor(waiters[flr - minFloor][1 - first], min, max, released);
+            }
+            size -= released.size();
+            totalReleased += released.size();
+        } finally {
+            lock.unlock();
+        }
+        return released;
+    }
+
+    private void releaseFloor(ArrayDeque<PersonRequest> queue, int min, int max,
+                              ArrayList<PersonRequest> released) {
+        Iterator<PersonRequest> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            PersonRequest request = iterator.next();
+            if (request.getToFloor() >= min && request.getToFloor() <= max) {
+                released.add(request);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Note that a request has left the scheduling for good: it's given to a
+     * car, routed, or handed to another zone. If it had been deferred, its
+     * count of deferrals is recorded.
+     */
+    public void settle(PersonRequest request) {
+        lock.lock();
+        try {
+            Integer num = deferrals.remove(request.getPersonId());
+            if (num != null) {
+                settledDeferrals.record(num);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take out every deferred request.
+     */
+    public ArrayList<PersonRequest> releaseAll() {
+        return release(0, 0, minFloor, maxFloor);
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return size == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format(
+                    "@DeferredStore{deferred=%d,released=%d,peak=%d,left=%d,persons=%d,"
+                            + "mean_deferrals=%.2f,p95_deferrals=%d,max_deferrals=%d}",
+                    totalDeferrals, totalReleased, peakSize, size, settledDeferrals.getCount(),
+                    settledDeferrals.getMean(), settledDeferrals.percentile(0.95),
+                    settledDeferrals.getMax()
+            );
+        } finally {
+            lock.unlock();
+        }
+    }
+}
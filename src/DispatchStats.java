@@ -0,0 +1,72 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+// thread confined: only the server thread records
+
+/**
+ * Counters of the dispatching work done by the server thread, so that
+ * different dispatch modes can be compared on the same trace.
+ * <p>
+ *     The figure to compare the modes on is the passengers' wait, from the
+ *     arrival of a request to the person's first IN, taken from
+ *     {@link Metrics}(recorded whenever elevator.dispatchStats is on): run a
+ *     trace with elevator.dispatch=greedy and again with batch. Besides, the
+ *     receive delay is measured from the moment the server takes a request
+ *     from the request queue to its RECEIVE, and the cost is the dispatch
+ *     cost of the car it's given to, in the units of the cost model: priority
+ *     points(without the random tie-break), or ms of estimated passenger time
+ *     with elevator.cost=eta. The virtual-time engine dispatches the same
+ *     way, its batch window counted in virtual time.
+ * </p>
+ */
+public class DispatchStats {
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private final String mode;
+    private final String costModel;
+    private long dispatched = 0;
+    private long delayNanos = 0;
+    private long totalCost = 0;
+    private long cpuNanos = 0;
+    private long cpuBegin;
+
+    /**
+     * @param mode      the dispatch mode, greedy or batch
+     * @param costModel the cost model, priority or eta
+     */
+    public DispatchStats(String mode, String costModel) {
+        this.mode = mode;
+        this.costModel = costModel;
+    }
+
+    public void beginDispatch() {
+        cpuBegin = threadBean.getCurrentThreadCpuTime();
+    }
+
+    public void endDispatch() {
+        cpuNanos += threadBean.getCurrentThreadCpuTime() - cpuBegin;
+    }
+
+    /**
+     * @param cost  the dispatch cost of the car, in the units of the cost model
+     */
+    public void recordAssignment(long takenAt, long cost) {
+        dispatched++;
+        delayNanos += System.nanoTime() - takenAt;
+        totalCost += cost;
+    }
+
+    @Override
+    public String toString() {
+        long num = Math.max(dispatched, 1);
+        LatencyHistogram wait = Metrics.getWait();
+        return String.format(
+                "@DispatchStats{mode=%s,dispatched=%d,mean_wait=%.1fms,p95_wait=%.1fms,"
+                        + "mean_receive_delay=%.3fms,%s=%.1f%s,cpu_per_req=%.1fus}",
+                mode, dispatched, wait.getMean() / 1e3, wait.percentile(0.95) / 1e3,
+                delayNanos / 1e6 / num, "eta".equals(costModel) ? "mean_eta_cost" : "mean_priority",
+                (double) totalCost / num, "eta".equals(costModel) ? "ms" : "",
+                cpuNanos / 1e3 / num
+        );
+    }
+}
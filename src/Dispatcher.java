@@ -0,0 +1,437 @@
+import com.oocourse.elevator3.PersonRequest;
+import com.oocourse.elevator3.Request;
+import com.oocourse.elevator3.ResetRequest;
+import tools.Output;
+import tools.Trace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// not thread safe: used by one scheduling thread, except noteDirectionChange()
+
+/**
+ * Gives the person requests of a zone to the cars of the zone.
+ * <p>
+ *     The dispatcher takes its requests from its inbound queue, and looks
+ *     only at the cars of its zone. A request none of them can carry is
+ *     handed back to the server: planned into legs at once if the zone is the
+ *     whole fleet, else routed again across the zones. Requests none of the
+ *     cars can take for now are deferred in the dispatcher's store, and
+ *     released when one of the cars changes its direction.
+ * </p>
+ */
+public class Dispatcher {
+    private final ServerThread server;
+    private final FleetRegistry registry;
+    private final Zone zone;
+    private final boolean wholeFleet;
+    // where the requests of this dispatcher are taken from
+    private final RequestQueue inbound;
+    // requests no car of the zone can take for now, released on direction changes
+    private final DeferredStore deferredStore;
+    private final FleetRegistry.CarView view = new FleetRegistry.CarView();
+    // dispatch mode: "greedy" schedules requests one by one, "batch" collects the
+    // requests of a window and assigns them jointly
+    private final boolean batchDispatch =
+            "batch".equals(System.getProperty("elevator.dispatch", "greedy"));
+    private final long batchWindow = Long.getLong("elevator.batchWindow", 100);  // in ms
+    // cost model: "priority" is the weighted sum of schedulePriority(), "eta" the
+    // estimated increase of total passenger time
+    private final boolean etaCost = "eta".equals(System.getProperty("elevator.cost", "priority"));
+    private final EtaEstimator estimator = new EtaEstimator(
+            ElevatorThread.openTime + ElevatorThread.closeTime, ElevatorThread.resetTime);
+    private final DispatchStats dispatchStats =
+            new DispatchStats(batchDispatch ? "batch" : "greedy", etaCost ? "eta" : "priority");
+    // cost of an assignment the batch solver must not choose
+    private static final long infeasibleCost = 1_000_000_000L;
+    // the tie-break of the priority cost: seeded with elevator.seed(plus the
+    // zone id), a run of the virtual-time engine repeats exactly
+    private final Random random;
+    // the person requests the virtual-time engine collects for a batch, and
+    // the virtual time(in ms) the batch window closes at
+    private final ArrayList<PersonRequest> openBatch = new ArrayList<>();
+    private long batchDeadline;
+
+    Dispatcher(ServerThread server, FleetRegistry registry, Zone zone, boolean wholeFleet,
+               RequestQueue inbound, DeferredStore deferredStore) {
+        this.server = server;
+        this.registry = registry;
+        this.zone = zone;
+        this.wholeFleet = wholeFleet;
+        this.inbound = inbound;
+        this.deferredStore = deferredStore;
+        final Long seed = Long.getLong("elevator.seed");
+        random = seed == null ? new Random() : new Random(seed + zone.getId());
+    }
+
+    public Zone getZone() {
+        return zone;
+    }
+
+    public DispatchStats getDispatchStats() {
+        return dispatchStats;
+    }
+
+    public DeferredStore getDeferredStore() {
+        return deferredStore;
+    }
+
+    /**
+     * Schedule a request taken from the inbound queue; in batch mode, with
+     * the person requests arriving within the window after it.
+     */
+    public void dispatch(Request request) {
+        final long takenAt = System.nanoTime();
+        if (Metrics.on() && request instanceof PersonRequest) {
+            Metrics.taken((PersonRequest) request);
+        }
+        dispatchStats.beginDispatch();
+        if (batchDispatch && request instanceof PersonRequest) {
+            scheduleBatch(collectBatch((PersonRequest) request), takenAt);
+        } else {
+            schedule(request, takenAt);
+        }
+        dispatchStats.endDispatch();
+    }
+
+    /**
+     * Schedule the requests drained by an engine running in virtual time: one
+     * by one, or in batch mode, the person requests are collected from the
+     * first one for the batch window of virtual time, and assigned jointly
+     * once it's over(with a window of 0, those of the same instant).
+     * @param now   the virtual time, in ms
+     * @return      when the open batch is due, or -1 if there's none
+     */
+    public long dispatchAll(Collection<Request> requests, long now) {
+        dispatchStats.beginDispatch();
+        for (Request request : requests) {
+            if (Metrics.on() && request instanceof PersonRequest) {
+                Metrics.taken((PersonRequest) request);
+            }
+            if (batchDispatch && request instanceof PersonRequest) {
+                if (openBatch.isEmpty()) {
+                    batchDeadline = now + batchWindow;
+                }
+                openBatch.add((PersonRequest) request);
+            } else {
+                schedule(request, System.nanoTime());
+            }
+        }
+        if (!openBatch.isEmpty() && now >= batchDeadline) {
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.batch, openBatch.size());
+            }
+            ArrayList<PersonRequest> batch = new ArrayList<>(openBatch);
+            openBatch.clear();
+            scheduleBatch(batch, System.nanoTime());
+        }
+        dispatchStats.endDispatch();
+        return openBatch.isEmpty() ? -1 : batchDeadline;
+    }
+
+    /**
+     * Called by a car of the zone changing its direction, or going idle: the
+     * deferred requests it can pick up now are sent back to the inbound queue.
+     * @param dirFlag   where the elevator is going next: 1, -1, or 0 if idle
+     */
+    public void noteDirectionChange(Elevator elevator, int dirFlag) {
+        ArrayList<PersonRequest> released = deferredStore.release(elevator.getFloor(),
+                dirFlag, elevator.getMinFloor(), elevator.getMaxFloor());
+        if (!released.isEmpty()) {
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.released, Trace.eid(elevator.getEid()), released.size());
+            }
+            inbound.requeue(released);
+        }
+    }
+
+    /**
+     * Move all deferred requests back to the inbound queue at once.
+     * @return false if there was nothing deferred
+     */
+    public boolean releaseDeferred() {
+        ArrayList<PersonRequest> released = deferredStore.releaseAll();
+        inbound.requeue(released);
+        return !released.isEmpty();
+    }
+
+    /**
+     * Collect the person requests arriving within the batch window after the
+     * first one. Other requests met on the way are scheduled at once.
+     */
+    private ArrayList<PersonRequest> collectBatch(PersonRequest first) {
+        ArrayList<PersonRequest> batch = new ArrayList<>();
+        batch.add(first);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindow);
+        ArrayList<Request> drained = new ArrayList<>();
+        while (true) {
+            inbound.drainTo(drained);
+            for (Request request : drained) {
+                if (request instanceof PersonRequest) {
+                    if (Metrics.on()) {
+                        Metrics.taken((PersonRequest) request);
+                    }
+                    batch.add((PersonRequest) request);
+                } else {
+                    schedule(request, System.nanoTime());
+                }
+            }
+            drained.clear();
+            long rest = deadline - System.nanoTime();
+            if (rest <= 0 || inbound.isEnd()) {
+                break;
+            }
+            // the CPU of waiting for the window isn't dispatching work
+            dispatchStats.endDispatch();
+            Request request = inbound.getRequest(rest, TimeUnit.NANOSECONDS);
+            dispatchStats.beginDispatch();
+            if (request != null) {
+                drained.add(request);
+            }
+        }
+        if (Trace.on(Trace.scheduler)) {
+            Trace.event(Trace.batch, batch.size());
+        }
+        return batch;
+    }
+
+    /**
+     * The priority cost with its tie-break, to choose a car on.
+     */
+    private long schedulePriority(long cost) {
+        // 5th: random of [0,10)
+        int priority = random.nextInt(10);
+        return cost == 9999 ? cost : priority + cost;
+    }
+
+    /**
+     * The cost of giving the request to the car, by the selected model.
+     * Smaller is better.
+     */
+    private long dispatchCost(int index, FleetRegistry.CarView car, PersonRequest request) {
+        return etaCost ? etaCost(index, car, request) : priorityCost(car, request);
+    }
+
+    /**
+     * The estimated increase of the total passenger time(in ms) of the car,
+     * from its published state and work, never blocking it.
+     */
+    private long etaCost(int index, FleetRegistry.CarView car, PersonRequest request) {
+        Elevator elevator = registry.get(index);
+        return estimator.marginalTime(car, elevator.getMoveTime(), elevator.getWork(),
+                request.getFromFloor(), request.getToFloor());
+    }
+
+    /**
+     * The deterministic part of the schedule priority. Smaller is better.
+     */
+    private int priorityCost(FleetRegistry.CarView car, PersonRequest request) {
+        int priority = 0;
+        // highest: idle
+        if (car.getDirection() == Elevator.Direction.STAY) {
+            return priority;
+        }
+        // moving towards:
+        // 1st: not full
+        if (car.isFull()) { return 9999; }
+        // 2nd: shorter distance
+        priority += 1000 * Math.abs(request.getFromFloor() - car.getFloor());
+        // 3nd: less load
+        priority += 100 * car.getLoad();
+        // CHECKME best fit serving range
+        // 4th:
+        priority += 10 * car.fitRange(request.getFromFloor(), request.getToFloor());
+
+        return priority;
+    }
+
+    /**
+     * If the car is moving away from the request's from-floor.
+     * <p>
+     *     Jump on equal floor as well, because this leads to uncertainty: the
+     *     req may not get picked up. A car with no command(next direction 0)
+     *     is idle, whatever its last direction, and goes anywhere.
+     * </p>
+     */
+    private boolean isHeadingAway(FleetRegistry.CarView car, PersonRequest request) {
+        if (car.getDirection() == Elevator.Direction.STAY || car.nextDirection() == 0) {
+            return false;
+        }
+        int floor = car.getFloor();
+        return floor == request.getFromFloor()
+                || floor < request.getFromFloor() && car.nextDirection() == -1
+                || floor > request.getFromFloor() && car.nextDirection() == 1;
+    }
+
+    /**
+     * Assign a batch of person requests jointly.
+     * <p>
+     *     Every operable elevator offers as many slots as its rest space(at least
+     *     one), the k-th slot of an elevator costing an extra k loads. The requests
+     *     are matched to slots by minimal total dispatch cost; a request no
+     *     elevator can take now goes through the one-by-one schedule(), which
+     *     splits or buffers it.
+     * </p>
+     * @param takenAt   when the first request of the batch was taken
+     */
+    private void scheduleBatch(ArrayList<PersonRequest> batch, long takenAt) {
+        final int n = batch.size();
+        ArrayList<Integer> slotCars = new ArrayList<>();
+        ArrayList<Integer> slotRanks = new ArrayList<>();
+        final int[] zoneCars = zone.getCars();
+        FleetRegistry.CarView[] cars = new FleetRegistry.CarView[registry.size()];
+        for (int index : zoneCars) {
+            cars[index] = new FleetRegistry.CarView();
+            registry.read(index, cars[index]);
+            if (!cars[index].isOperable()) {
+                continue;
+            }
+            int slots = Math.min(n, Math.max(1, cars[index].getRestSpace()));
+            for (int k = 0; k < slots; k++) {
+                slotCars.add(index);
+                slotRanks.add(k);
+            }
+        }
+        // the extra n columns leave a request unassigned
+        final int m = slotCars.size() + n;
+        long[][] cost = new long[n][m];
+        for (int i = 0; i < n; i++) {
+            PersonRequest request = batch.get(i);
+            for (int j = 0; j < m; j++) {
+                cost[i][j] = infeasibleCost;
+            }
+            for (int j = 0; j < slotCars.size(); j++) {
+                final int index = slotCars.get(j);
+                FleetRegistry.CarView car = cars[index];
+                if (!car.containRange(request.getFromFloor(), request.getToFloor())
+                        || isHeadingAway(car, request)) {
+                    continue;
+                }
+                if (car.getDirection() != Elevator.Direction.STAY && car.isFull()) {
+                    continue;
+                }
+                cost[i][j] = dispatchCost(index, car, request) + 100L * slotRanks.get(j);
+            }
+            cost[i][slotCars.size() + i] = infeasibleCost / 2;
+        }
+        int[] assignment = AssignmentSolver.solve(cost);
+        for (int i = 0; i < n; i++) {
+            int j = assignment[i];
+            if (j < slotCars.size() && cost[i][j] < infeasibleCost / 2) {
+                // the cost of the car itself, without the penalty of the slot
+                assign(slotCars.get(j), batch.get(i), takenAt,
+                        cost[i][j] - 100L * slotRanks.get(j));
+            } else {
+                schedule(batch.get(i), takenAt);
+            }
+        }
+    }
+
+    private void assign(int index, PersonRequest request, long takenAt, long cost) {
+        // elevator found, start scheduling
+        Elevator elevator = registry.get(index);
+        Output.receive(request.getPersonId(), elevator.getEid());
+        if (Metrics.on()) {
+            Metrics.receive(request);
+        }
+        // This thread ensures that once a new request is acquired from the request
+        // queue, it's immediately written to the scheduled elevator's fr_table, so
+        // that an elevator can read its scheduled requests in real time.
+        zone.commit();
+        elevator.addRequest(request);  // write request in elevator's fr_table
+        dispatchStats.recordAssignment(takenAt, cost);
+        deferredStore.settle(request);
+    }
+
+    private void schedule(Request inputRequest, long takenAt) {
+        if (inputRequest instanceof ResetRequest) {
+            server.scheduleReset((ResetRequest) inputRequest);
+            return;
+        }
+        PersonRequest request = (PersonRequest) inputRequest;
+        // a release from now on may concern the request: see defer()
+        final long releases = deferredStore.getReleases();
+        // look in (towards + idle) for an elevator of shortest distance
+        long minPriority = Long.MAX_VALUE;
+        long selectedCost = 0;  // without the tie-break, for the stats
+        int selected = -1;
+        boolean allReset = true;
+        boolean splitRequest = true;
+        boolean allBackwards = true;
+        boolean zoneContains = false;  // counting the cars not operable
+        // read the published snapshots, the elevator threads are never blocked
+        for (int index : zone.getCars()) {
+            registry.read(index, view);
+            zoneContains |= view.containRange(request.getFromFloor(), request.getToFloor());
+            // elevator under reset or about to, not operable
+            if (!view.isOperable()) {
+                continue;
+            }
+            allReset = false;
+            // CHECKME check range of request and elevator serving floors
+            if (!view.containRange(request.getFromFloor(), request.getToFloor())) {
+                continue;
+            }
+            splitRequest = false;
+            // if away from the request, jump it
+            if (isHeadingAway(view, request)) {
+                continue;
+            }
+            allBackwards = false;
+            // measure priority and record
+            // smaller value of priority means higher priority level!!!
+            long cost = dispatchCost(index, view, request);
+            long priority = etaCost ? cost : schedulePriority(cost);
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.priority, request.getPersonId(), index, priority);
+            }
+            // "<"(instead of <=) means if multiple found, take the 1st
+            if (priority < minPriority) {
+                minPriority = priority;
+                selectedCost = cost;
+                selected = index;
+            }
+        }
+        if (allReset) {
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.deferAllResetting, request.getPersonId());
+            }
+            defer(request, releases);
+        } else if (splitRequest) {
+            // no car of the zone contains the range
+            if (wholeFleet) {
+                server.planRoute(request);
+            } else if (zoneContains) {
+                // the cars which could carry it are resetting, wait for them
+                defer(request, releases);
+            } else {
+                if (Trace.on(Trace.scheduler)) {
+                    Trace.event(Trace.handedOff, request.getPersonId(), zone.getId());
+                }
+                deferredStore.settle(request);
+                server.handOff(request, zone);
+            }
+        } else if (allBackwards) {
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.deferBackwards, request.getPersonId());
+            }
+            defer(request, releases);
+        } else {
+            assign(selected, request, takenAt, selectedCost);
+        }
+    }
+
+    /**
+     * Defer a request, unless a car changed since the cars were read for it:
+     * the release of that change may have come before the request was in the
+     * store, so it's scheduled again instead.
+     * @param releases  the releases of the store before the cars were read
+     */
+    private void defer(PersonRequest request, long releases) {
+        if (!deferredStore.defer(request, releases)) {
+            inbound.requeue(request);
+        }
+    }
+}
@@ -2,70 +2,156 @@ import com.oocourse.elevator3.DoubleCarResetRequest;
 import com.oocourse.elevator3.NormalResetRequest;
 import com.oocourse.elevator3.PersonRequest;
 import com.oocourse.elevator3.Request;
-import tools.Debugger;
+import tools.Output;
+import tools.Trace;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 //  thread safe
 public class Elevator {
+    // A Lock instead of the object monitor: a virtual thread waiting on a Condition
+    // gives its carrier thread back, while one in Object.wait() pins it.
+    // Every change is made holding the lock; the fields read by the scheduler are
+    // volatile so that their getters need not take it.
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled only when the command list gets a new command or is ended,
+    // the only events the elevator thread waits in nextCommand() for
+    private final Condition commandArrived = lock.newCondition();
+    // how many times an elevator thread returned from waiting, for the stats report
+    private static final LongAdder wakeups = new LongAdder();
     private final CommandList commandList;  // list of commands waiting to be executed
-    private final HashSet<PersonRequest> passengers;
+    private final Cabin passengers;  // the passengers on board, by destination
     private final FloorRequestTable floorRequestTable;  // the fr_table
-    private String eid;
-    private int maxSpace = 6;
+    private volatile String eid;
+    private volatile int maxSpace = BuildingConfig.get().getCapacity();
+    private volatile int load = 0;  // passengers.size(), kept for lock-free reading
     // a table of request scheduled to be handled by the current elevator
-    private int floor;  // current floor
-    private int minFloor = 1;
-    private int maxFloor = 11;
-    private int transFloor;
+    private volatile int floor;  // current floor
+    private volatile int minFloor = BuildingConfig.get().getMinFloor();
+    private volatile int maxFloor = BuildingConfig.get().getMaxFloor();
+    private volatile int transFloor;
+    // ms per floor, changed by resets
+    private volatile int moveTime = BuildingConfig.get().getMoveTime();
+    // commandList.isEmpty() and the next direction, cached by commandsChanged()
+    // whenever the commands, the floor or the direction change
+    private volatile boolean commandEmpty = true;
+    private volatile int nextDirection = 0;
+    // the persons served, for the eta cost only: building it costs a copy
+    private final boolean publishWork =
+            "eta".equals(System.getProperty("elevator.cost", "priority"));
+    private volatile EtaEstimator.Work work = EtaEstimator.Work.empty;
+    // where the scheduling state is published for lock-free reading
+    private FleetRegistry registry = null;
+    private volatile int index = -1;
 
-    public synchronized boolean containRange(PersonRequest request) {
-        notifyAll();
+    /**
+     * Join the registry at the given index and publish the current state.
+     */
+    public void attach(FleetRegistry registry, int index) {
+        lock.lock();
+        try {
+            this.registry = registry;
+            this.index = index;
+            publish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Publish the scheduling state to the registry, called with the lock held
+     * after every change of it.
+     */
+    private void publish() {
+        if (registry != null) {
+            registry.publish(index, floor, direction, load, maxSpace, state,
+                    minFloor, maxFloor, nextDirection, commandList.isReset());
+        }
+    }
+
+    /**
+     * Refresh the cached command state and publish, called with the lock held
+     * after a change of the commands, the floor, the direction or the
+     * transfer floor; the other changes only publish.
+     */
+    private void commandsChanged() {
+        commandEmpty = commandList.isEmpty();
+        nextDirection = computeNextDirection(false);
+        publish();
+    }
+
+    public boolean containRange(PersonRequest request) {
         return
                 request.getFromFloor() >= minFloor && request.getFromFloor() <= maxFloor
                 && request.getToFloor() >= minFloor && request.getToFloor() <= maxFloor;
     }
 
-    public synchronized int fitRange(PersonRequest request) {
+    public int fitRange(PersonRequest request) {
         assert (containRange(request));
         return maxFloor - minFloor - Math.abs(request.getToFloor() - request.getFromFloor());
     }
 
-    public synchronized void setEid(String s) {
-        eid = s;
+    public void setEid(String s) {
+        lock.lock();
+        try {
+            eid = s;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized String getEid() {
+    public String getEid() {
         return eid;
     }
 
-    public synchronized void setFloor(int i) {
-        floor = i;
-        notifyAll();
+    /**
+     * @return how many times the elevator threads woke up waiting for commands
+     */
+    public static long getWakeups() {
+        return wakeups.sum();
+    }
+
+    public void setFloor(int i) {
+        lock.lock();
+        try {
+            floor = i;
+            commandsChanged();
+        } finally {
+            lock.unlock();
+        }
     }
 
     public enum State {
         MOVING, OPENING, CLOSING, RESETTING
     }
 
-    private State state;  // the processing state of the current command
+    private volatile State state;  // the processing state of the current command
 
     public enum Direction {
         UP, DOWN, STAY
     }
 
-    private Direction direction;
+    private volatile Direction direction;
 
     Elevator(String eid) {
         this.eid = eid;
-        floor = 1;
+        floor = minFloor;
         transFloor = 0;
         state = State.MOVING;
         direction = Direction.STAY;
         commandList = new CommandList(minFloor, maxFloor);
-        passengers = new HashSet<>();
+        passengers = new Cabin(maxFloor);
         floorRequestTable = new FloorRequestTable(minFloor, maxFloor);
+        nextDirection = computeNextDirection(false);
     }
 
     Elevator(String eid, int minFloor, int maxFloor, int transFloor, Command command) {
@@ -73,6 +159,7 @@ public class Elevator {
         state = State.MOVING;
         direction = Direction.STAY;
         this.maxSpace = command.getResetLoad();
+        this.moveTime = command.getResetSpeed();
         // set initial floor
         this.minFloor = minFloor;
         this.maxFloor = maxFloor;
@@ -84,19 +171,28 @@ public class Elevator {
             floor = transFloor - 1;
         }
         commandList = new CommandList(minFloor, maxFloor);
-        passengers = new HashSet<>();
+        passengers = new Cabin(maxFloor);
         floorRequestTable = new FloorRequestTable(minFloor, maxFloor);
-    }
-
-    public synchronized HashSet<PersonRequest> reset(Command command) {
-        // State is not set here as it'll affect scheduling process,
-        // and thus put at the end of ElevatorThread::motionReset(),
-        // after output "RESET_END".
-        this.direction = Direction.STAY;
-        this.maxSpace = command.getResetLoad();
-        this.commandList.reset();
-        notifyAll();
-        return this.floorRequestTable.reset();
+        nextDirection = computeNextDirection(false);
+    }
+
+    public HashSet<PersonRequest> reset(Command command) {
+        lock.lock();
+        try {
+            // State is not set here as it'll affect scheduling process,
+            // and thus put at the end of ElevatorThread::motionReset(),
+            // after output "RESET_END".
+            this.direction = Direction.STAY;
+            this.maxSpace = command.getResetLoad();
+            this.moveTime = command.getResetSpeed();
+            this.commandList.reset();
+            commandsChanged();
+            HashSet<PersonRequest> waiters = this.floorRequestTable.reset();
+            workChanged();
+            return waiters;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -107,23 +203,30 @@ public class Elevator {
      *     can always keep its commandList refreshed just in time.
      * </p>
      */
-    public synchronized void addRequest(Request inputRequest) {
-        if (inputRequest instanceof PersonRequest) {
-            PersonRequest request = (PersonRequest) inputRequest;
-            // modify the fr_table
-            floorRequestTable.addRequest(request);
-            // modify the command list table
-            commandList.addEntry(request);  // this will write a U/D entry to the table
-        } else if (inputRequest instanceof NormalResetRequest) {
-            NormalResetRequest request = (NormalResetRequest) inputRequest;
-            commandList.addReset(request.getCapacity(), request.getSpeed(),
-                    0);
-        } else if (inputRequest instanceof DoubleCarResetRequest) {
-            DoubleCarResetRequest request = (DoubleCarResetRequest) inputRequest;
-            commandList.addReset(request.getCapacity(), request.getSpeed(),
-                    request.getTransferFloor());
+    public void addRequest(Request inputRequest) {
+        lock.lock();
+        try {
+            if (inputRequest instanceof PersonRequest) {
+                PersonRequest request = (PersonRequest) inputRequest;
+                // modify the fr_table
+                floorRequestTable.addRequest(request);
+                // modify the command list table
+                commandList.addEntry(request);  // this will write a U/D entry to the table
+                workChanged();
+            } else if (inputRequest instanceof NormalResetRequest) {
+                NormalResetRequest request = (NormalResetRequest) inputRequest;
+                commandList.addReset(request.getCapacity(), request.getSpeed(),
+                        0);
+            } else if (inputRequest instanceof DoubleCarResetRequest) {
+                DoubleCarResetRequest request = (DoubleCarResetRequest) inputRequest;
+                commandList.addReset(request.getCapacity(), request.getSpeed(),
+                        request.getTransferFloor());
+            }
+            commandsChanged();
+            commandArrived.signalAll();
+        } finally {
+            lock.unlock();
         }
-        notifyAll();
     }
 
     /**
@@ -135,9 +238,28 @@ public class Elevator {
      * @implNote If the elevator's direction is STAY, the method
      * will consider both sides(up and down); if not enough info is
      * get, it automatically returns the direction UP.
+     * @implNote The value is cached on every change it depends on, so reading
+     * it takes no lock; with elevator tracing on, it's computed again to trace
+     * how it's decided.
      * @return the next direction for the elevator
      */
-    public synchronized int nextDirection() {
+    public int nextDirection() {
+        if (Trace.on(Trace.elevator)) {
+            lock.lock();
+            try {
+                return computeNextDirection(true);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return nextDirection;
+    }
+
+    /**
+     * Called with the lock held.
+     * @param traced    if true, trace the entries it's decided on
+     */
+    private int computeNextDirection(boolean traced) {
         if (commandList.isEmpty() && floor == transFloor) {
             return minFloor == transFloor ? 1 : -1;
         } else if (commandList.isEmpty()) {
@@ -145,19 +267,22 @@ public class Elevator {
         }
         // ret = false if direction is STAY
         boolean ret = commandList.hasEntryInDirection(floor, direction);
-        Debugger.dbgPrintln("- hasEntryInDir=" + ret, "elevator", eid);
-        notifyAll();
+        if (traced) {
+            Trace.event(Trace.carHasEntry, Trace.eid(eid), floor, direction.ordinal(),
+                    Trace.bool(ret));
+        }
         switch (direction) {
             case UP:
                 return ret ? 1 : -1;
             case DOWN:
                 return ret ? -1 : 1;
             default: // STAY
-                Debugger.dbgPrintln("STAY:", "elevator");
                 boolean upward = commandList.hasEntryInDirection(floor, Direction.UP);
                 boolean downward = commandList.hasEntryInDirection(floor, Direction.DOWN);
-                Debugger.dbgPrintln("\thasEntryInDir Up=" + upward, "elevator", eid);
-                Debugger.dbgPrintln("\thasEntryInDir Dw=" + downward, "elevator", eid);
+                if (traced) {
+                    Trace.event(Trace.carStay, Trace.eid(eid), Trace.bool(upward),
+                            Trace.bool(downward));
+                }
                 if (upward) { // upward is of higher priority
                     return 1;
                 } else if (downward) {
@@ -174,228 +299,371 @@ public class Elevator {
      * @return the next command for the elevator
      * @throws InterruptedException if the current thread is interrupted in waiting
      */
-    public synchronized Command nextCommand(boolean jumpCurrent) throws InterruptedException {
-        // CHECKME for DCE: if IDLE at transferring floor, move away one floor and continue
-        if (commandList.isEmpty() && floor == transFloor) {
-            return new Command(
-                    minFloor == transFloor ? transFloor + 1 : transFloor - 1, 0);
+    public Command nextCommand(boolean jumpCurrent) throws InterruptedException {
+        lock.lock();
+        try {
+            // CHECKME for DCE: if IDLE at transferring floor, move away one floor and continue
+            if (commandList.isEmpty() && floor == transFloor) {
+                return new Command(
+                        minFloor == transFloor ? transFloor + 1 : transFloor - 1, 0);
+            }
+            if (commandList.isEmpty() && !commandList.isEnd()) {
+                final long idleBegin = Metrics.on() ? Metrics.now() : 0;
+                commandArrived.await();  // command not ended, but no new commands yet
+                if (Metrics.on()) {
+                    Metrics.carIdle(eid, Metrics.now() - idleBegin);
+                }
+                wakeups.increment();
+            }
+            if (commandList.isEmpty()) {
+                return null;  // command might have ended, loop and try again
+            }
+            Command ret = commandList.nextCommand(floor, direction, jumpCurrent);
+            if (Trace.on(Trace.command) && ret != null) {  // the command got
+                Trace.event(Trace.carCommand, Trace.eid(eid), Trace.bool(ret.isReset()),
+                        ret.isReset() ? ret.getResetLoad() : ret.getDestination(),
+                        ret.isReset() ? ret.getResetSpeed() : ret.getWaitTime());
+            }
+            return ret;
+        } finally {
+            lock.unlock();
         }
-        if (commandList.isEmpty()) {
-            wait();  // command not ended, but no new commands yet
+    }
+
+    public void removeCurCommand(int dirFlag, boolean jump) {
+        lock.lock();
+        try {
+            commandList.removeCurCommand(floor, dirFlag, jump, passengers);
+            commandsChanged();
+        } finally {
+            lock.unlock();
         }
-        if (commandList.isEmpty()) {
-            return null;  // command might have ended, loop and try again
+    }
+
+    public boolean loadPassengers(int dirFlag) {
+        lock.lock();
+        try {
+            // calculate space left on elevator
+            int restSpace = maxSpace - load;
+            if (restSpace == 0) {
+                return true;
+            }
+            final boolean overFlow = restSpace < floorRequestTable.getFloorWaiterNum(floor, dirFlag);
+            // get loaded passengers from fr_table and load them
+            ArrayList<PersonRequest> loadedPassengers = new ArrayList<>(restSpace);
+            floorRequestTable.getFloorWaiters(floor, dirFlag, restSpace, loadedPassengers);
+            passengers.addAll(loadedPassengers);
+            load = passengers.size();
+            // print loading messages
+            for (PersonRequest personRequest : loadedPassengers) {
+                Output.in(personRequest.getPersonId(), floor, eid);
+                if (Metrics.on()) {
+                    Metrics.in(personRequest);
+                }
+            }
+            workChanged();
+            publish();
+            return overFlow;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean needUnloading() {
+        lock.lock();
+        try {
+            return passengers.hasDestination(floor);
+        } finally {
+            lock.unlock();
         }
-        Command ret = commandList.nextCommand(floor, direction, jumpCurrent);
-        Debugger.dbgPrintln(ret, "command", eid);  // debug print the command get
-        Debugger.dbgPrintln(commandList, "commandlist", eid);
-        notifyAll();
-        return ret;
     }
 
-    public synchronized void removeCurCommand(int dirFlag, boolean jump) {
-        commandList.removeCurCommand(floor, dirFlag, jump, passengers);
-        notifyAll();
+    public void unloadPassengers(ServerThread server) {
+        lock.lock();
+        try {
+            if (!passengers.hasDestination(floor)) {
+                return;
+            }
+            ArrayList<PersonRequest> unloaded = new ArrayList<>(passengers.getRiderNum(floor));
+            passengers.unload(floor, unloaded);
+            for (PersonRequest personRequest : unloaded) {
+                Output.out(personRequest.getPersonId(), floor, eid);
+                arrive(personRequest, server);
+            }
+            server.noteLeaving(this, unloaded.size());
+            load = passengers.size();
+            workChanged();
+            publish();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized boolean loadPassengers(int dirFlag) {
-        // calculate space left on elevator
-        int restSpace = maxSpace - passengers.size();
-        if (restSpace == 0) {
-            return true;
+    /**
+     * A passenger out at its destination: the person is done, or goes on to
+     * the next leg of its transfer.
+     */
+    private void arrive(PersonRequest personRequest, ServerThread server) {
+        if (Metrics.on()) {
+            if (personRequest instanceof ParaRequest) {
+                Metrics.transferOut(personRequest);
+            } else {
+                Metrics.arrive(personRequest);
+            }
         }
-        final boolean overFlow = restSpace < floorRequestTable.getFloorWaiterNum(floor, dirFlag);
-        // get loaded passengers from fr_table and load them
-        HashSet<PersonRequest> loadedPassengers =
-                floorRequestTable.getFloorWaiters(floor, dirFlag, restSpace);
-        passengers.addAll(loadedPassengers);
-        // print loading messages
-        for (PersonRequest personRequest : loadedPassengers) {
-            Debugger.timePrintln(
-                    String.format(
-                            "IN-%d-%d-%s",
-                            personRequest.getPersonId(), floor, eid
-                    )
-            );
+        // CHECKME for ParaRequest, send next request to Server now
+        if (personRequest instanceof ParaRequest) {
+            HashSet<PersonRequest> hashSet = new HashSet<>();
+            hashSet.add(((ParaRequest) personRequest).getNextRequest());
+            server.addRequests(hashSet);
+            if (Trace.on(Trace.elevator)) {
+                Trace.event(Trace.carParaSent, Trace.eid(eid),
+                        personRequest.getPersonId());
+            }
+        } else {
+            server.noteRequestDone();
         }
-        notifyAll();
-        return overFlow;
     }
 
-    public synchronized boolean needUnloading() {
-        for (PersonRequest personRequest : passengers) {
-            if (personRequest.getToFloor() == floor) {
-                return true;
+    public boolean isFull() {
+        return load == maxSpace;
+    }
+
+    /**
+     * @return the persons this elevator serves, to estimate its times on
+     *         without its lock; empty unless elevator.cost=eta
+     * @see EtaEstimator
+     */
+    public EtaEstimator.Work getWork() {
+        return work;
+    }
+
+    /**
+     * Publish the persons served anew, called with the lock held after the
+     * passengers or the waiters change.
+     */
+    private void workChanged() {
+        if (!publishWork) {
+            return;
+        }
+        int[] riding = new int[passengers.size()];
+        int i = 0;
+        BitSet destinations = passengers.getDestinations();
+        for (int to = destinations.nextSetBit(0); to >= 0; to = destinations.nextSetBit(to + 1)) {
+            for (int k = passengers.getRiderNum(to); k > 0; k--) {
+                riding[i++] = to;
             }
         }
-        notifyAll();
-        return false;
-    }
-
-    public synchronized void unloadPassengers(ServerThread server) {
-        Iterator<PersonRequest> iterator = passengers.iterator();
-        PersonRequest personRequest;
-        while (iterator.hasNext()) {
-            personRequest = iterator.next();
-            if (personRequest.getToFloor() == floor) {
-                Debugger.timePrintln(
-                        String.format(
-                                "OUT-%d-%d-%s",
-                                personRequest.getPersonId(), floor, eid
-                        )
-                );
-                // CHECKME for ParaRequest, send next request to Server now
-                if (personRequest instanceof ParaRequest) {
-                    HashSet<PersonRequest> hashSet = new HashSet<>();
-                    hashSet.add(((ParaRequest) personRequest).getNextRequest());
-                    server.addRequests(hashSet);
-                    Debugger.dbgPrintln("ParaRequest sent", "elevator");
+        ArrayList<PersonRequest> waiters = new ArrayList<>(floorRequestTable.size());
+        floorRequestTable.getAllWaiters(waiters);
+        int[] waitingFrom = new int[waiters.size()];
+        int[] waitingTo = new int[waiters.size()];
+        for (i = 0; i < waitingFrom.length; i++) {
+            waitingFrom[i] = waiters.get(i).getFromFloor();
+            waitingTo[i] = waiters.get(i).getToFloor();
+        }
+        work = new EtaEstimator.Work(riding, waitingFrom, waitingTo);
+    }
+
+    public int getMoveTime() {
+        return moveTime;
+    }
+
+    public int getRestSpace() {
+        return maxSpace - load;
+    }
+
+    public int getLoad() {
+        return load;
+    }
+
+    /**
+     * Put every passenger out for a reset. Those at their destination are
+     * done(or go on to their next leg) as on a normal OUT.
+     * @return the requests of the others, from this floor on
+     */
+    public HashSet<PersonRequest> forceUnloadAll(ServerThread server) {
+        lock.lock();
+        try {
+            HashSet<PersonRequest> unloaded = new HashSet<>();
+            ArrayList<PersonRequest> riders = new ArrayList<>(passengers.size());
+            passengers.unloadAll(riders);
+            int arrived = 0;
+            for (PersonRequest personRequest : riders) {
+                // force unloading the passenger
+                Output.out(personRequest.getPersonId(), floor, eid);
+                if (personRequest.getToFloor() == floor) {
+                    arrive(personRequest, server);
+                    arrived++;
+                    continue;
+                }
+                if (Metrics.on()) {
+                    Metrics.transferOut(personRequest);
                 }
-                iterator.remove();
+                // create new request from the unfinished origin request, keeping
+                // the rest of a transfer
+                PersonRequest newRequest = personRequest instanceof ParaRequest
+                        ? new ParaRequest(floor, personRequest.getToFloor(),
+                        personRequest.getPersonId(),
+                        ((ParaRequest) personRequest).getNextRequest())
+                        : new PersonRequest(
+                        floor,
+                        personRequest.getToFloor(),
+                        personRequest.getPersonId()
+                );
+                unloaded.add(newRequest);
             }
+            server.noteLeaving(this, arrived);
+            load = 0;
+            workChanged();
+            publish();
+            return unloaded;
+        } finally {
+            lock.unlock();
         }
-        notifyAll();
-    }
-
-    public synchronized boolean isFull() {
-        boolean ret = passengers.size() == maxSpace;
-        notifyAll();
-        return ret;
-    }
-
-    public synchronized int getLoad() {
-        int ret = passengers.size();
-        notifyAll();
-        return ret;
-    }
-
-    public synchronized HashSet<PersonRequest> forceUnloadAll() {
-        HashSet<PersonRequest> unloaded = new HashSet<>();
-        for (PersonRequest personRequest : passengers) {
-            // force unloading the passenger
-            Debugger.timePrintln(
-                    String.format(
-                            "OUT-%d-%d-%s",
-                            personRequest.getPersonId(), floor, eid
-                    )
-            );
-            // create new request from the unfinished origin request
-            PersonRequest newRequest = new PersonRequest(
-                    floor,
-                    personRequest.getToFloor(),
-                    personRequest.getPersonId()
-            );
-            unloaded.add(newRequest);
-        }
-        passengers.clear();
-        notifyAll();
-        return unloaded;
     }
 
-    public synchronized State getState() {
-        notifyAll();
+    public State getState() {
         return state;
     }
 
-    public synchronized void setState(State state) {
-        this.state = state;
-        notifyAll();
+    public void setState(State state) {
+        lock.lock();
+        try {
+            this.state = state;
+            publish();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized void setEnd() {
-        commandList.setEnd(true);
-        notifyAll();
+    public void setEnd() {
+        lock.lock();
+        try {
+            commandList.setEnd(true);
+            commandArrived.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized Direction getDirection() {
-        notifyAll();
+    public Direction getDirection() {
         return direction;
     }
 
-    public synchronized void setDirection(Direction direction) {
-        this.direction = direction;
-        notifyAll();
+    public void setDirection(Direction direction) {
+        lock.lock();
+        try {
+            this.direction = direction;
+            commandsChanged();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized int getTransFloor() {
-        notifyAll();
+    public int getTransFloor() {
         return transFloor;
     }
 
-    public synchronized void setRange(int min, int max) {
-        minFloor = min;
-        maxFloor = max;
-        commandList.setRange(min, max);
-        floorRequestTable.setRange(min, max);
-        notifyAll();
+    /**
+     * @return the waiters out of the new range, given to the car meanwhile,
+     *         to be dispatched again
+     */
+    public HashSet<PersonRequest> setRange(int min, int max) {
+        lock.lock();
+        try {
+            minFloor = min;
+            maxFloor = max;
+            commandList.setRange(min, max);
+            HashSet<PersonRequest> dropped = floorRequestTable.setRange(min, max);
+            workChanged();
+            commandsChanged();
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isCommandEmpty() {
+        return commandEmpty;
     }
 
-    public synchronized boolean isCommandEmpty() {
-        boolean ret = commandList.isEmpty();
-        notifyAll();
-        return ret;
+    public boolean isCommandReset() {
+        lock.lock();
+        try {
+            boolean ret = commandList.isReset();
+            return ret;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized boolean isCommandEnd() {
-        boolean ret = commandList.isEnd();
-        notifyAll();
-        return ret;
+    public boolean isCommandEnd() {
+        lock.lock();
+        try {
+            boolean ret = commandList.isEnd();
+            return ret;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized int getFloor() {
-        notifyAll();
+    public int getFloor() {
         return floor;
     }
 
-    public synchronized void moveOneFloor(Direction direction) {
-        switch (direction) {
-            case UP:
-                floor++;
-                break;
-            case DOWN:
-                floor--;
-                break;
-            default:
+    public void moveOneFloor(Direction direction) {
+        lock.lock();
+        try {
+            switch (direction) {
+                case UP:
+                    floor++;
+                    break;
+                case DOWN:
+                    floor--;
+                    break;
+                default:
+            }
+            commandsChanged();
+        } finally {
+            lock.unlock();
         }
-        notifyAll();
     }
 
-    public synchronized boolean isFeedbackRequestEnd() {
-        notifyAll();
-        boolean ret = true;
-        for (PersonRequest personRequest : passengers) {
-            if (personRequest instanceof ParaRequest) {
-                ret = false;
-                break;
-            }
+    public boolean isFeedbackRequestEnd() {
+        lock.lock();
+        try {
+            return !commandList.isReset()
+                    && !passengers.hasParaReq() && !floorRequestTable.hasParaReq();
+        } finally {
+            lock.unlock();
         }
-        ret &= !floorRequestTable.hasParaReq();
-        return !commandList.isReset() && ret;
     }
 
-    public synchronized boolean atFloor(int toCompare) {
-        notifyAll();
+    public boolean atFloor(int toCompare) {
         return toCompare == floor;
     }
 
-    public synchronized int getMinFloor() {
-        notifyAll();
+    public int getMinFloor() {
         return minFloor;
     }
 
-    public synchronized int getMaxFloor() {
-        notifyAll();
+    public int getMaxFloor() {
         return maxFloor;
     }
 
-    public synchronized void setTransFloor(int transFloor) {
-        this.transFloor = transFloor;
-        notifyAll();
+    public void setTransFloor(int transFloor) {
+        lock.lock();
+        try {
+            this.transFloor = transFloor;
+            commandsChanged();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public synchronized boolean isUpperDcElevator() {
+    public boolean isUpperDcElevator() {
         assert transFloor != 0;
-        notifyAll();
         return minFloor == transFloor;
     }
 }
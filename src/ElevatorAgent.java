@@ -0,0 +1,312 @@
+import com.oocourse.elevator3.PersonRequest;
+import tools.Output;
+
+import java.util.HashSet;
+
+// NOT thread safe: driven by the SimulationEngine only
+
+/**
+ * The virtual-time counterpart of ElevatorThread.
+ * <p>
+ *     It runs the same motions on the same Elevator, but every sleep of the
+ *     thread becomes an event scheduled on the engine, and the motion goes on
+ *     when that event fires. Where the thread would wait for new commands, the
+ *     agent goes idle until {@link #wake()} is called; where it would wait for
+ *     the transferring floor, until the para releases it.
+ * </p>
+ */
+public class ElevatorAgent {
+    private final SimulationEngine engine;
+    private final ServerThread server;
+    private final Elevator elevator;
+    private ElevatorAgent para = null;
+    private TransferToken transferToken = null;
+    private long waitBegin;  // when the agent began waiting for the transferring floor
+    private String eid;
+    private Command command;
+    private boolean jump = false; // if last floor still has waiters, jump
+    private boolean idle = true;  // waiting for commands, or for the transferring floor
+    private long idleSince;  // when the agent began waiting for commands
+    private long resetBegin;
+    private boolean waitingPara = false;
+
+    // elevator running time(in ms), the door and reset times are ElevatorThread's
+    private int moveTime = BuildingConfig.get().getMoveTime();
+
+    public ElevatorAgent(SimulationEngine engine, ServerThread server, Elevator elevator,
+                         String eid) {
+        this.engine = engine;
+        this.server = server;
+        this.elevator = elevator;
+        this.eid = eid;
+        this.idleSince = engine.now();
+    }
+
+    private ElevatorAgent(SimulationEngine engine, ServerThread server, Elevator elevator,
+                          String eid, ElevatorAgent para, TransferToken transferToken,
+                          Command command) {
+        this(engine, server, elevator, eid);
+        this.para = para;
+        this.transferToken = transferToken;
+        this.moveTime = command.getResetSpeed();
+    }
+
+    /**
+     * Make the two agents the cars of one double-car shaft, sharing the token
+     * of the transfer floor.
+     */
+    public void pairWith(ElevatorAgent other, TransferToken token) {
+        this.para = other;
+        this.transferToken = token;
+        other.para = this;
+        other.transferToken = token;
+    }
+
+    /**
+     * Go on from idle, if there is something to do now.
+     */
+    public void wake() {
+        if (!idle || waitingPara || !hasCommand()) {
+            return;
+        }
+        idle = false;
+        if (Metrics.on()) {
+            Metrics.carIdle(eid, (engine.now() - idleSince) * 1000);
+        }
+        engine.schedule(0, this::step);
+    }
+
+    private boolean hasCommand() {
+        return !elevator.isCommandEmpty() || elevator.atFloor(elevator.getTransFloor());
+    }
+
+    /**
+     * One round of ElevatorThread.run(): get the next command, and enter the
+     * motion of the current state.
+     */
+    private void step() {
+        if (!hasCommand()) {  // where the thread waits in Elevator.nextCommand()
+            idle = true;
+            idleSince = engine.now();
+            return;
+        }
+        try {
+            command = elevator.nextCommand(jump);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);  // never waits when a command exists
+        }
+        jump = false; // the jump information is used, thus outdated
+        if (command == null) {
+            idle = true;
+            idleSince = engine.now();
+            return;
+        }
+        switch (elevator.getState()) {
+            case MOVING:
+                motionMoving();
+                break;
+            case OPENING:
+                Output.open(elevator.getFloor(), eid);
+                if (Metrics.on()) {
+                    Metrics.carDoor(eid);
+                }
+                engine.schedule(ElevatorThread.openTime, () -> {
+                    elevator.setState(Elevator.State.CLOSING);
+                    step();
+                });
+                break;
+            case CLOSING:
+                engine.schedule(ElevatorThread.closeTime, this::finishClosing);
+                break;
+            case RESETTING:
+                motionReset();
+                break;
+            default:
+        }
+    }
+
+    private void motionReset() {
+        if (elevator.getLoad() != 0) {
+            Output.open(elevator.getFloor(), eid);
+            if (Metrics.on()) {
+                Metrics.carDoor(eid);
+            }
+            engine.schedule(ElevatorThread.openTime, () -> {
+                HashSet<PersonRequest> unloaded = elevator.forceUnloadAll(server);
+                server.giveBack(elevator, unloaded);
+                engine.schedule(ElevatorThread.closeTime, () -> {
+                    Output.close(elevator.getFloor(), eid);
+                    beginReset();
+                });
+            });
+        } else {
+            beginReset();
+        }
+    }
+
+    private void beginReset() {
+        Output.resetBegin(eid);
+        resetBegin = engine.now();
+        // the waiters are dispatched to other elevators at once, as in ElevatorThread
+        server.giveBack(elevator, elevator.reset(command));
+        engine.schedule(ElevatorThread.resetTime, this::finishReset);
+    }
+
+    private void finishReset() {
+        if (Metrics.on()) {
+            Metrics.carReset(eid, (engine.now() - resetBegin) * 1000);
+        }
+        this.moveTime = command.getResetSpeed();
+
+        int resetTransFloor = command.getResetTransFloor();
+        if (resetTransFloor != 0) {
+            // create para elevator and modify self, as ElevatorThread.motionReset()
+            String paraEid = eid + "-B";
+            Elevator ev = new Elevator(paraEid, resetTransFloor,
+                    elevator.getMaxFloor(), resetTransFloor, command);
+            TransferToken token = new TransferToken();
+            ElevatorAgent agent = new ElevatorAgent(engine, server, ev, paraEid, this, token,
+                    command);
+            server.addElevator(paraEid, ev);
+            eid += "-A";
+            elevator.setFloor(command.getResetTransFloor() - 1);
+            elevator.setEid(elevator.getEid() + "-A");
+            para = agent;
+            transferToken = token;
+            server.giveBack(elevator, elevator.setRange(elevator.getMinFloor(), resetTransFloor));
+            elevator.setTransFloor(resetTransFloor);
+            engine.addAgent(agent);
+        }
+        Output.resetEnd(BuildingConfig.shaftOf(eid));
+        elevator.setState(Elevator.State.MOVING);
+        server.noteElevatorDirectionChange(elevator, 0);
+        if (resetTransFloor != 0) {
+            server.noteRangeChange();
+            server.noteElevatorDirectionChange(para.elevator, 0);  // the new elevator is idle too
+        }
+        server.noteRequestDone();  // the reset
+        step();
+    }
+
+    private void motionMoving() {
+        // resetting entry
+        if (command.isReset()) {
+            elevator.setState(Elevator.State.RESETTING);
+            step();
+            return;
+        }
+        if (command.getDestination() == elevator.getFloor()) {
+            elevator.setDirection(Elevator.Direction.STAY);
+        } else if (command.getDestination() > elevator.getFloor()) {
+            elevator.setDirection(Elevator.Direction.UP);
+        } else { // command.getDst() < elevator.getFloor()
+            elevator.setDirection(Elevator.Direction.DOWN);
+        }
+        // if is one of DCE: reserve the transferring floor before moving onto it
+        final int transFloor = elevator.getTransFloor();
+        if (transFloor != 0
+                && elevator.getFloor() + dirFlagOf(elevator.getDirection()) == transFloor
+                && !transferToken.tryAcquire(transferSide())) {
+            // queued up next, go on when the para releases it
+            waitingPara = true;
+            idle = true;
+            waitBegin = engine.now();
+            return;
+        }
+        moveOneFloor();
+    }
+
+    private static int dirFlagOf(Elevator.Direction direction) {
+        return direction == Elevator.Direction.UP ? 1
+                : direction == Elevator.Direction.DOWN ? -1 : 0;
+    }
+
+    private int transferSide() {
+        return elevator.isUpperDcElevator() ? 1 : 0;
+    }
+
+    /**
+     * Called when the para releases the transferring floor: where the thread
+     * is unparked in TransferToken.acquire().
+     */
+    private void noteTransferRelease() {
+        if (!waitingPara || !transferToken.tryAcquire(transferSide())) {
+            return;
+        }
+        TransferToken.recordWait(engine.now() - waitBegin);
+        waitingPara = false;
+        idle = false;
+        moveOneFloor();
+    }
+
+    private void moveOneFloor() {
+        if (elevator.getDirection() == Elevator.Direction.STAY) {
+            arrive();
+            return;
+        }
+        final int fromFloor = elevator.getFloor();
+        engine.schedule(moveTime, () -> {
+            elevator.moveOneFloor(elevator.getDirection());
+            Output.arrive(elevator.getFloor(), eid);
+            if (Metrics.on()) {
+                Metrics.carMove(eid);
+            }
+            if (transferToken != null && fromFloor == elevator.getTransFloor()) {
+                transferToken.release(transferSide());  // moved off the transferring floor
+                para.noteTransferRelease();
+            }
+            arrive();
+        });
+    }
+
+    private void arrive() {
+        // if the moving stage has been finished:
+        if (command.getDestination() == elevator.getFloor()) {
+            // if the elevator is full and only loading required on this floor,
+            // jump the command once
+            if (elevator.isFull() && !elevator.needUnloading()) {
+                if (!elevator.isCommandEmpty() && elevator.isCommandReset()) {
+                    step();
+                    return;
+                }
+                jump = true; // jump the command once
+            } else {
+                elevator.setState(Elevator.State.OPENING);          // open the door next
+            }
+        }
+        step();
+    }
+
+    /**
+     * The rest of ElevatorThread.motionClosing() after waiting for the door.
+     */
+    private void finishClosing() {
+        int dirFlag = elevator.nextDirection();
+        switch (elevator.getDirection()) {
+            case UP:
+                if (dirFlag != 1) {
+                    server.noteElevatorDirectionChange(elevator, dirFlag);
+                }
+                break;
+            case DOWN:
+                if (dirFlag != -1) {
+                    server.noteElevatorDirectionChange(elevator, dirFlag);
+                }
+                break;
+            default:
+                if (dirFlag != 0) {
+                    server.noteElevatorDirectionChange(elevator, dirFlag);
+                }
+                break;
+        }
+        elevator.unloadPassengers(server);
+        jump = elevator.loadPassengers(dirFlag);
+        elevator.removeCurCommand(dirFlag, jump);  // the current command finished, remove it
+        if (elevator.isCommandEmpty()) {
+            server.noteElevatorDirectionChange(elevator, 0);  // idle now, free to go anywhere
+        }
+        Output.close(elevator.getFloor(), eid);
+        elevator.setState(Elevator.State.MOVING);  // now the elevator is free to move again
+        step();
+    }
+}
@@ -1,22 +1,25 @@
 import com.oocourse.elevator3.PersonRequest;
-import tools.Debugger;
+import tools.Output;
+import tools.Trace;
 
 import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
 
 public class ElevatorThread extends Thread {
     private final ServerThread server;
     private final Elevator elevator;
     private Elevator para = null;
-    private ParaLock paraLock = null;
+    // the reservation of the transferring floor, shared with the para
+    private TransferToken transferToken = null;
     private String eid; // TODO not thread safe
     private Command command;
     private boolean jump = false; // if last floor still has waiters, jump
 
     // elevator running time constants(in ms)
-    private int moveTime = 400;
-    private final int openTime = 200;
-    private final int closeTime = 200;
-    private final int resetTime = 1200;
+    private int moveTime = BuildingConfig.get().getMoveTime();
+    static final int openTime = BuildingConfig.get().getOpenTime();
+    static final int closeTime = BuildingConfig.get().getCloseTime();
+    static final int resetTime = BuildingConfig.get().getResetTime();
 
     public ElevatorThread(ServerThread server, Elevator elevator, String eid) {
         this.server = server;
@@ -25,12 +28,12 @@ public class ElevatorThread extends Thread {
     }
 
     public ElevatorThread(ServerThread server, Elevator elevator, String eid,
-                          Elevator para, ParaLock paraLock, Command command) {
+                          Elevator para, TransferToken transferToken, Command command) {
         this.server = server;
         this.elevator = elevator;
         this.eid = eid;
         this.para = para;
-        this.paraLock = paraLock;
+        this.transferToken = transferToken;
         this.moveTime = command.getResetSpeed();
     }
 
@@ -38,34 +41,26 @@ public class ElevatorThread extends Thread {
     public void run() {
         try {
             while (true) {
-                Debugger.dbgPrintln(
-                        String.format(
-                                "@Thread{ElevatorThread,eid=%s,dir=%s,cur_flr=%d,load=%d}: running",
-                                eid, elevator.getDirection(), elevator.getFloor(),
-                                elevator.getLoad()
-                        ), "elevator thread", eid
-                );
+                if (Trace.on(Trace.elevatorThread)) {
+                    Trace.event(Trace.carLoop, Trace.eid(eid), elevator.getDirection().ordinal(),
+                            elevator.getFloor(), elevator.getLoad());
+                    Trace.event(Trace.carTryExit, Trace.eid(eid),
+                            Trace.bool(elevator.isCommandEmpty()), Trace.bool(server.isEnd()));
+                }
                 // exiting condition: finish all commands
-                Debugger.dbgPrintln(
-                        String.format(
-                                "@Thread{ElevatorThread,eid=%s,cmdemt=%s,svend=%s}: trying exiting",
-                                eid, elevator.isCommandEmpty(), server.isEnd()
-                        ), "elevator thread", eid
-                );
                 if (elevator.isCommandEmpty() && server.isEnd()) {
-                    Debugger.dbgPrintln(
-                            String.format(
-                                    "@Thread{ElevatorThread,eid=%s,cmdemt=%s,svend=%s}: exiting",
-                                    eid, elevator.isCommandEmpty(), server.isEnd()
-                            ), "elevator thread", eid
-                    );
+                    if (Trace.on(Trace.elevatorThread)) {
+                        Trace.event(Trace.carExit, Trace.eid(eid));
+                    }
                     return;
                 }
                 // get the next command
                 command = elevator.nextCommand(jump);
                 jump = false; // the jump information is used, thus outdated
                 if (command == null) {
-                    Debugger.dbgPrintln("null command", "elevator thread");
+                    if (Trace.on(Trace.elevatorThread)) {
+                        Trace.event(Trace.carNullCommand, Trace.eid(eid));
+                    }
                     continue; }
                 // enter specific motion of current state
                 switch (elevator.getState()) {
@@ -73,30 +68,24 @@ public class ElevatorThread extends Thread {
                         motionMoving();
                         break;
                     case OPENING:
-                        Debugger.dbgPrintln(
-                                String.format(
-                                        "@Thread{ElevatorThread,eid=%s}: enter opening",
-                                        eid
-                                ), "elevator thread", eid
-                        );
+                        if (Trace.on(Trace.elevatorThread)) {
+                            Trace.event(Trace.carEnter, Trace.eid(eid),
+                                    Elevator.State.OPENING.ordinal());
+                        }
                         motionOpening();
                         break;
                     case CLOSING:
-                        Debugger.dbgPrintln(
-                                String.format(
-                                        "@Thread{ElevatorThread,eid=%s}: enter closing",
-                                        eid
-                                ), "elevator thread", eid
-                        );
+                        if (Trace.on(Trace.elevatorThread)) {
+                            Trace.event(Trace.carEnter, Trace.eid(eid),
+                                    Elevator.State.CLOSING.ordinal());
+                        }
                         motionClosing();
                         break;
                     case RESETTING:
-                        Debugger.dbgPrintln(
-                                String.format(
-                                        "@Thread{ElevatorThread,eid=%s}: enter resetting",
-                                        eid
-                                ), "elevator thread", eid
-                        );
+                        if (Trace.on(Trace.elevatorThread)) {
+                            Trace.event(Trace.carEnter, Trace.eid(eid),
+                                    Elevator.State.RESETTING.ordinal());
+                        }
                         motionReset();
                         break;
                     default:
@@ -108,60 +97,65 @@ public class ElevatorThread extends Thread {
     private void motionReset() throws InterruptedException {
         // create new requests and force unload
         if (elevator.getLoad() != 0) {
-            Debugger.timePrintln(
-                    String.format("OPEN-%d-%s", elevator.getFloor(), eid)
-            );
+            Output.open(elevator.getFloor(), eid);
+            if (Metrics.on()) {
+                Metrics.carDoor(eid);
+            }
             sleep(openTime);
-            HashSet<PersonRequest> unloaded = elevator.forceUnloadAll();
-            server.addRequests(unloaded);
+            HashSet<PersonRequest> unloaded = elevator.forceUnloadAll(server);
+            server.giveBack(elevator, unloaded);
             sleep(closeTime);
-            Debugger.timePrintln(
-                    String.format("CLOSE-%d-%s", elevator.getFloor(), eid)
-            );
+            Output.close(elevator.getFloor(), eid);
         }
         // reset elevator status structures
-        Debugger.timePrintln(
-                String.format("RESET_BEGIN-%s", eid)
-        );
+        Output.resetBegin(eid);
+        final String resetEid = eid;
+        final long resetBegin = Metrics.on() ? Metrics.now() : 0;
+        // the RECEIVEs of the waiters are cancelled now: dispatch them to other
+        // elevators at once instead of after the reset
+        server.giveBack(elevator, elevator.reset(command));
         sleep(resetTime);
         this.moveTime = command.getResetSpeed();
-        server.addRequests(elevator.reset(command));
 
         int resetTransFloor = command.getResetTransFloor();
         if (resetTransFloor != 0) {
             // CHECKME create para elevator and modify self
-            ParaLock lock = new ParaLock();
+            TransferToken token = new TransferToken();
             // create para
             String paraEid = eid + "-B";
             Elevator ev = new Elevator(paraEid, resetTransFloor,
                     elevator.getMaxFloor(), resetTransFloor, command);
-            ElevatorThread et = new ElevatorThread(server, ev, paraEid, elevator, lock, command);
+            ElevatorThread et = new ElevatorThread(server, ev, paraEid, elevator, token, command);
             server.addElevator(paraEid, ev, et);
-            et.start();
+            Launcher.start(et);
             // modify self
             eid += "-A";
             elevator.setFloor(command.getResetTransFloor() - 1);
             elevator.setEid(elevator.getEid() + "-A");
-            paraLock = lock;
+            transferToken = token;
             para = ev;
-            elevator.setRange(elevator.getMinFloor(), resetTransFloor);
+            server.giveBack(elevator, elevator.setRange(elevator.getMinFloor(), resetTransFloor));
             elevator.setTransFloor(resetTransFloor);
         }
-        Debugger.timePrintln(
-                String.format("RESET_END-%s", eid.charAt(0))
-        );
+        Output.resetEnd(BuildingConfig.shaftOf(eid));
+        if (Metrics.on()) {
+            Metrics.carReset(resetEid, Metrics.now() - resetBegin);
+        }
         // set state to MOVING and note the server
         elevator.setState(Elevator.State.MOVING);
-        server.noteElevatorDirectionChange();
+        server.noteElevatorDirectionChange(elevator, 0);
+        if (resetTransFloor != 0) {
+            server.noteRangeChange();
+            server.noteElevatorDirectionChange(para, 0);  // the new elevator is idle too
+        }
+        server.noteRequestDone();  // the reset
     }
 
     private void motionMoving() throws InterruptedException {
-        Debugger.dbgPrintln(
-                String.format(
-                        "@Thread{ElevatorThread,eid=%s}: enter moving=%s",
-                        eid, elevator.getDirection()
-                ), "elevator thread", eid
-        );
+        if (Trace.on(Trace.elevatorThread)) {
+            Trace.event(Trace.carEnter, Trace.eid(eid), Elevator.State.MOVING.ordinal(),
+                    elevator.getDirection().ordinal());
+        }
         // resetting entry
         if (command.isReset()) {
             elevator.setState(Elevator.State.RESETTING);
@@ -175,23 +169,12 @@ public class ElevatorThread extends Thread {
         } else { // command.getDst() < elevator.getFloor()
             elevator.setDirection(Elevator.Direction.DOWN);
         }
-        // CHECKME if moving to transferring floor(move only 1 flr), check for conflict
-        // if is one of DCE:
-        if (elevator.getTransFloor() != 0) {
-            assert (paraLock != null);
-            if (// if moving to transferring floor from neighbouring floor, conflicts possible
-                    (elevator.isUpperDcElevator() && elevator.atFloor(elevator.getTransFloor() + 1)
-                    && elevator.nextDirection() == -1)
-                    ||
-                    (!elevator.isUpperDcElevator() && elevator.atFloor(elevator.getTransFloor() - 1)
-                    && elevator.nextDirection() == 1)
-            ) {
-                Debugger.dbgPrintln("self: conflict, checking para", "elevator thread");
-                // will wait on any para conflicts until solved:
-                // 1. idle(not moving with direction != STAY) at transFloor
-                // 2. moving towards transFloor from neighbouring floor(direction != STAY)
-                checkParaConflicts();
-            }
+        // if is one of DCE: reserve the transferring floor before moving onto it
+        final int fromFloor = elevator.getFloor();
+        final int transFloor = elevator.getTransFloor();
+        if (transFloor != 0 && fromFloor + dirFlagOf(elevator.getDirection()) == transFloor) {
+            assert (transferToken != null);
+            acquireTransferFloor();
         }
 
         // move one floor
@@ -199,12 +182,12 @@ public class ElevatorThread extends Thread {
             sleep(moveTime);
             elevator.moveOneFloor(elevator.getDirection());
             // output arrival info on each move
-            Debugger.timePrintln(
-                    String.format("ARRIVE-%d-%s", elevator.getFloor(), eid)
-            );
-            if (paraLock != null) {
-                Debugger.dbgPrintln("para: notifying");
-                paraLock.setLogic(true);
+            Output.arrive(elevator.getFloor(), eid);
+            if (Metrics.on()) {
+                Metrics.carMove(eid);
+            }
+            if (transFloor != 0 && fromFloor == transFloor) {
+                transferToken.release(transferSide());  // moved off the transferring floor
             }
         }
         // if the moving stage has been finished:
@@ -222,46 +205,38 @@ public class ElevatorThread extends Thread {
         }
     }
 
-    private void checkParaConflicts() throws InterruptedException {
-        /*
-        Para Lock design introduction:
+    private static int dirFlagOf(Elevator.Direction direction) {
+        return direction == Elevator.Direction.UP ? 1
+                : direction == Elevator.Direction.DOWN ? -1 : 0;
+    }
+
+    private int transferSide() {
+        return elevator.isUpperDcElevator() ? 1 : 0;
+    }
 
-        We're using the para lock to solve the following problems:
-        1.
-        2.
-        */
-        assert (para != null);
-        // check partner elevator for any conflicts:
-        boolean conflict = para.atFloor(para.getTransFloor());
-        Debugger.dbgPrintln("cond1=" + conflict, "elevator thread");
-        conflict |= (para.atFloor(para.getTransFloor() + 1)
-                && para.nextDirection() == -1);
-        Debugger.dbgPrintln("cond12=" + conflict, "elevator thread");
-        conflict |= (para.atFloor(para.getTransFloor() - 1)
-                && para.nextDirection() == 1);
-        Debugger.dbgPrintln("cond123=" + conflict, "elevator thread");
-        while (conflict) {
-            // let para go first if conflict
-            Debugger.dbgPrintln("para: conflict!", "elevator thread");
-            elevator.setDirection(Elevator.Direction.STAY);
-            paraLock.waitOn();
-            Debugger.dbgPrintln("para: noted!", "elevator thread");
-            conflict = para.atFloor(para.getTransFloor());
-            Debugger.dbgPrintln("cond1=" + conflict, "elevator thread");
-            conflict |= (para.atFloor(para.getTransFloor() + 1)
-                    && para.nextDirection() == -1);
-            Debugger.dbgPrintln("cond12=" + conflict, "elevator thread");
-            conflict |= (para.atFloor(para.getTransFloor() - 1)
-                    && para.nextDirection() == 1);
-            Debugger.dbgPrintln("cond123=" + conflict, "elevator thread");
+    /**
+     * Wait until the transferring floor is reserved for this elevator, keeping
+     * its turn until then; an interrupt ends the wait.
+     */
+    private void acquireTransferFloor() throws InterruptedException {
+        final int side = transferSide();
+        if (transferToken.tryAcquire(side)) {
+            return;
+        }
+        if (Trace.on(Trace.elevatorThread)) {
+            Trace.event(Trace.carTokenWait, Trace.eid(eid), elevator.getTransFloor());
         }
+        final long begin = System.nanoTime();
+        transferToken.acquire(side);
+        TransferToken.recordWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
     }
 
     private void motionOpening() throws InterruptedException {
         // start opening the door
-        Debugger.timePrintln(
-                String.format("OPEN-%d-%s", elevator.getFloor(), eid)
-        );
+        Output.open(elevator.getFloor(), eid);
+        if (Metrics.on()) {
+            Metrics.carDoor(eid);
+        }
         sleep(openTime);
         elevator.setState(Elevator.State.CLOSING);              // load and unload passengers next
     }
@@ -271,21 +246,23 @@ public class ElevatorThread extends Thread {
         sleep(closeTime);
         // calc next direction
         int dirFlag = elevator.nextDirection();
-        Debugger.dbgPrintln("dir_load_rem=" + dirFlag, "elevator thread", eid);
+        if (Trace.on(Trace.elevatorThread)) {
+            Trace.event(Trace.carNextDirection, Trace.eid(eid), dirFlag);
+        }
         switch (elevator.getDirection()) {
             case UP:
                 if (dirFlag != 1) {
-                    server.noteElevatorDirectionChange();
+                    server.noteElevatorDirectionChange(elevator, dirFlag);
                 }
                 break;
             case DOWN:
                 if (dirFlag != -1) {
-                    server.noteElevatorDirectionChange();
+                    server.noteElevatorDirectionChange(elevator, dirFlag);
                 }
                 break;
             default:
                 if (dirFlag != 0) {
-                    server.noteElevatorDirectionChange();
+                    server.noteElevatorDirectionChange(elevator, dirFlag);
                 }
                 break;
         }
@@ -293,12 +270,15 @@ public class ElevatorThread extends Thread {
         elevator.unloadPassengers(server);
         // loading
         jump = elevator.loadPassengers(dirFlag);
-        Debugger.dbgPrintln("set jump=" + jump, "elevator thread", eid);
+        if (Trace.on(Trace.elevatorThread)) {
+            Trace.event(Trace.carJump, Trace.eid(eid), Trace.bool(jump));
+        }
         elevator.removeCurCommand(dirFlag, jump);  // the current command finished, remove it
+        if (elevator.isCommandEmpty()) {
+            server.noteElevatorDirectionChange(elevator, 0);  // idle now, free to go anywhere
+        }
         // finished closing the door
-        Debugger.timePrintln(
-                String.format("CLOSE-%d-%s", elevator.getFloor(), eid)
-        );
+        Output.close(elevator.getFloor(), eid);
         elevator.setState(Elevator.State.MOVING);  // now the elevator is free to move again
     }
 }
\ No newline at end of file
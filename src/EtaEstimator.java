@@ -0,0 +1,177 @@
+// NOT thread safe: one per dispatcher, its scratch arrays reused between estimates
+
+/**
+ * Estimates passenger times of an elevator by running its current work
+ * forward with its real timings.
+ * <p>
+ *     The car runs as its command list drives it: it keeps its direction
+ *     while there's a destination or a waiter ahead, or a waiter on its floor
+ *     going that way, otherwise it turns around. On a floor it lets out those
+ *     at their destination, then takes in the waiters going its way as long
+ *     as there's room; the others wait for it to come back, as a full car
+ *     passes by. Every floor where someone gets in or out costs a door cycle.
+ *     The estimate of a person is the time of their OUT, counted from now,
+ *     so it covers both the waiting and the ride.
+ * </p>
+ * <p>
+ *     A car with a reset pending first stops for it: the passengers get out
+ *     on the current floor and, after the reset, wait there to be taken
+ *     again.
+ * </p>
+ */
+public class EtaEstimator {
+    private static final int none = Integer.MIN_VALUE;  // no floor: person done, or on board
+
+    /**
+     * The persons a car serves, an immutable snapshot the car publishes on
+     * every change of them, so estimating never takes the car's lock.
+     */
+    public static final class Work {
+        static final Work empty = new Work(new int[0], new int[0], new int[0]);
+        private final int[] riding;  // destinations of the passengers on board
+        private final int[] waitingFrom;  // from-floors of the persons waiting for the car
+        private final int[] waitingTo;  // their to-floors
+
+        Work(int[] riding, int[] waitingFrom, int[] waitingTo) {
+            this.riding = riding;
+            this.waitingFrom = waitingFrom;
+            this.waitingTo = waitingTo;
+        }
+    }
+
+    private final int doorTime;  // open + close
+    private final int resetTime;
+    // person i: from[i] is where they wait(none once on board), to[i] their
+    // destination(none once out); the request estimated is the last one
+    private int[] from = new int[16];
+    private int[] to = new int[16];
+
+    public EtaEstimator(int doorTime, int resetTime) {
+        this.doorTime = doorTime;
+        this.resetTime = resetTime;
+    }
+
+    /**
+     * Estimate by how much the total time of the persons the car serves grows
+     * if the request is given to it, the request's own time included.
+     * @param car       the car's published state
+     * @param moveTime  its ms per floor
+     * @param work      the persons it serves
+     * @return          the increase in ms
+     */
+    public long marginalTime(FleetRegistry.CarView car, int moveTime, Work work,
+                             int fromFloor, int toFloor) {
+        return totalTime(car, moveTime, work, fromFloor, toFloor, true)
+                - totalTime(car, moveTime, work, fromFloor, toFloor, false);
+    }
+
+    /**
+     * The sum of the OUT times of every person served by the car.
+     * @param withRequest   if the request is counted in
+     */
+    private long totalTime(FleetRegistry.CarView car, int moveTime, Work work,
+                           int fromFloor, int toFloor, boolean withRequest) {
+        final int ridingNum = work.riding.length;
+        final int num = ridingNum + work.waitingFrom.length + (withRequest ? 1 : 0);
+        if (from.length < num) {
+            from = new int[Math.max(num, 2 * from.length)];
+            to = new int[from.length];
+        }
+        int floor = car.getFloor();
+        int onBoardNum = ridingNum;
+        int dir = car.nextDirection();
+        long time = 0;
+        for (int i = 0; i < ridingNum; i++) {
+            from[i] = none;
+            to[i] = work.riding[i];
+        }
+        System.arraycopy(work.waitingFrom, 0, from, ridingNum, work.waitingFrom.length);
+        System.arraycopy(work.waitingTo, 0, to, ridingNum, work.waitingTo.length);
+        if (withRequest) {
+            from[num - 1] = fromFloor;
+            to[num - 1] = toFloor;
+        }
+        if (car.isResetPending()) {
+            // everyone out here, and in again after the reset
+            for (int i = 0; i < ridingNum; i++) {
+                from[i] = floor;
+            }
+            onBoardNum = 0;
+            time = doorTime + resetTime;
+            dir = 0;
+        }
+        final int capacity = car.getMaxSpace();
+        int left = num;
+        long total = 0;
+        // a sweep of the shaft takes in one person at least
+        final int maxSteps = 2 * (car.getMaxFloor() - car.getMinFloor() + 1) * (num + 1);
+        for (int step = 0; step < maxSteps && left > 0; step++) {
+            boolean stop = false;
+            for (int i = 0; i < num; i++) {
+                if (from[i] == none && to[i] == floor) {
+                    to[i] = none;
+                    onBoardNum--;
+                    left--;
+                    total += time + doorTime;
+                    stop = true;
+                }
+            }
+            dir = chooseDirection(floor, dir == 0 ? 1 : dir, num, onBoardNum < capacity);
+            for (int i = 0; i < num && onBoardNum < capacity; i++) {
+                if (from[i] == floor && (to[i] - floor) * dir > 0) {
+                    from[i] = none;
+                    onBoardNum++;
+                    stop = true;
+                }
+            }
+            if (stop) {
+                time += doorTime;
+            }
+            if (left == 0) {
+                break;
+            }
+            if (!hasTargetAhead(floor, dir, num)) {
+                dir = -dir;
+            }
+            floor += dir;
+            time += moveTime;
+        }
+        return total;
+    }
+
+    /**
+     * Keep the direction if there's something to do that way, else turn.
+     * @param room  if the car can take one more in
+     */
+    private int chooseDirection(int floor, int dir, int num, boolean room) {
+        if (hasTargetAhead(floor, dir, num) || room && hasBoarding(floor, dir, num)) {
+            return dir;
+        }
+        if (hasTargetAhead(floor, -dir, num) || room && hasBoarding(floor, -dir, num)) {
+            return -dir;
+        }
+        return dir;
+    }
+
+    private boolean hasTargetAhead(int floor, int dir, int num) {
+        for (int i = 0; i < num; i++) {
+            if (to[i] == none) {
+                continue;
+            }
+            int target = from[i] != none ? from[i] : to[i];
+            if ((target - floor) * dir > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasBoarding(int floor, int dir, int num) {
+        for (int i = 0; i < num; i++) {
+            if (from[i] == floor && (to[i] - floor) * dir > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,182 @@
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// thread safe: one writer per car(the holder of its lock), any number of readers
+
+/**
+ * An integer-indexed registry of the elevators, with a lock-free view of
+ * each car's scheduling state.
+ * <p>
+ *     Every car publishes its floor, direction, load, state, range, next
+ *     direction and pending reset after each change, into one array per
+ *     field(struct of arrays). Each car has a seqlock version, odd while the
+ *     car is writing, so a reader gets a consistent snapshot of a car without
+ *     blocking it and simply retries on a torn read.
+ * </p>
+ * <p>
+ *     Cars are added at runtime, by double-car resets; the arrays are sized for
+ *     two cars per shaft up front so they never move under a writer. A car is
+ *     visible to readers once {@link #size()} covers its index.
+ * </p>
+ */
+public class FleetRegistry {
+    private static final Elevator.Direction[] directions = Elevator.Direction.values();
+    private static final Elevator.State[] states = Elevator.State.values();
+
+    /**
+     * A reader's copy of a car's state, reused between reads.
+     */
+    public static class CarView {
+        private int floor;
+        private Elevator.Direction direction;
+        private int load;
+        private int maxSpace;
+        private Elevator.State state;
+        private int minFloor;
+        private int maxFloor;
+        private int nextDirection;
+        private boolean resetPending;
+
+        public int getFloor() { return floor; }
+
+        public Elevator.Direction getDirection() { return direction; }
+
+        public int getLoad() { return load; }
+
+        public boolean isFull() { return load == maxSpace; }
+
+        public int getRestSpace() { return maxSpace - load; }
+
+        public int getMaxSpace() { return maxSpace; }
+
+        public Elevator.State getState() { return state; }
+
+        public int getMinFloor() { return minFloor; }
+
+        public int getMaxFloor() { return maxFloor; }
+
+        public int nextDirection() { return nextDirection; }
+
+        /**
+         * @return true if the car has received a reset not begun yet
+         */
+        public boolean isResetPending() { return resetPending; }
+
+        /**
+         * @return true if new requests may be given to the car: it's neither
+         * resetting nor about to
+         */
+        public boolean isOperable() {
+            return state != Elevator.State.RESETTING && !resetPending;
+        }
+
+        public boolean containRange(int fromFloor, int toFloor) {
+            return fromFloor >= minFloor && fromFloor <= maxFloor
+                    && toFloor >= minFloor && toFloor <= maxFloor;
+        }
+
+        public int fitRange(int fromFloor, int toFloor) {
+            return maxFloor - minFloor - Math.abs(toFloor - fromFloor);
+        }
+    }
+
+    private final Elevator[] elevators;
+    private volatile int size = 0;
+    private final AtomicLongArray versions;
+    private final int[] floors;
+    private final int[] directionOrdinals;
+    private final int[] loads;
+    private final int[] maxSpaces;
+    private final int[] stateOrdinals;
+    private final int[] minFloors;
+    private final int[] maxFloors;
+    private final int[] nextDirections;
+    private final boolean[] resetPendings;
+
+    /**
+     * @param shaftNum  the number of shafts, each may hold two cars later
+     */
+    public FleetRegistry(int shaftNum) {
+        final int capacity = 2 * shaftNum;
+        elevators = new Elevator[capacity];
+        versions = new AtomicLongArray(capacity);
+        floors = new int[capacity];
+        directionOrdinals = new int[capacity];
+        loads = new int[capacity];
+        maxSpaces = new int[capacity];
+        stateOrdinals = new int[capacity];
+        minFloors = new int[capacity];
+        maxFloors = new int[capacity];
+        nextDirections = new int[capacity];
+        resetPendings = new boolean[capacity];
+    }
+
+    /**
+     * Add a car and give it its index; the car publishes its first snapshot.
+     */
+    public synchronized int register(Elevator elevator) {
+        final int index = size;
+        if (index == elevators.length) {
+            throw new IllegalStateException("FleetRegistry: more cars than 2 per shaft");
+        }
+        elevators[index] = elevator;
+        elevator.attach(this, index);
+        size = index + 1;  // publishes the slot
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Elevator get(int index) {
+        return elevators[index];
+    }
+
+    /**
+     * Called by the car holding its own lock, so there's one writer per index.
+     */
+    public void publish(int index, int floor, Elevator.Direction direction, int load,
+                        int maxSpace, Elevator.State state, int minFloor, int maxFloor,
+                        int nextDirection, boolean resetPending) {
+        final long version = versions.getPlain(index);
+        versions.setOpaque(index, version + 1);  // odd: writing
+        VarHandle.storeStoreFence();
+        floors[index] = floor;
+        directionOrdinals[index] = direction.ordinal();
+        loads[index] = load;
+        maxSpaces[index] = maxSpace;
+        stateOrdinals[index] = state.ordinal();
+        minFloors[index] = minFloor;
+        maxFloors[index] = maxFloor;
+        nextDirections[index] = nextDirection;
+        resetPendings[index] = resetPending;
+        versions.setRelease(index, version + 2);
+    }
+
+    /**
+     * Copy a consistent snapshot of the car to the view, never blocking the car.
+     */
+    public void read(int index, CarView view) {
+        while (true) {
+            final long version = versions.getAcquire(index);
+            if ((version & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            view.floor = floors[index];
+            view.direction = directions[directionOrdinals[index]];
+            view.load = loads[index];
+            view.maxSpace = maxSpaces[index];
+            view.state = states[stateOrdinals[index]];
+            view.minFloor = minFloors[index];
+            view.maxFloor = maxFloors[index];
+            view.nextDirection = nextDirections[index];
+            view.resetPending = resetPendings[index];
+            VarHandle.loadLoadFence();
+            if (versions.getOpaque(index) == version) {
+                return;
+            }
+        }
+    }
+}
@@ -1,72 +1,77 @@
 import com.oocourse.elevator3.PersonRequest;
-import tools.Debugger;
+import tools.Trace;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 
-// thread safe
+// not thread safe: guarded by the lock of the owning Elevator
 
 /**
  * A structure listing requests in their from-floors.
  * It keeps the information of requests, adds new requests to the specified floor in the table,
  * and removes the loaded passengers when informed by the elevator.
+ * <p>
+ *     The waiters of each floor are split by direction into two FIFO queues,
+ *     so counting them is O(1) and loading takes them in arrival order.
+ * </p>
  */
 public class FloorRequestTable {
     /**
-     * A table recording all requests' status, listed by there from-floor.
+     * A table recording all requests' status, listed by there from-floor:
+     * waiters[floor][0 for UP, 1 for DOWN], in arrival order.
      */
-    private final HashMap<Integer, HashSet<PersonRequest>> table;
+    private final ArrayDeque<PersonRequest>[][] waiters;
     private int minFloor;
     private int maxFloor;
+    private int size = 0;  // waiters in the table
+    private int paraNum = 0;  // ParaRequests in the table
 
     FloorRequestTable(int minFloor, int maxFloor) {
         // initialize floor-request table
         this.minFloor = minFloor;
         this.maxFloor = maxFloor;
-        table = new HashMap<>();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<PersonRequest>[][] table = new ArrayDeque[maxFloor + 1][2];
+        waiters = table;
         for (int i = minFloor; i <= maxFloor; i++) {
-            table.put(i, new HashSet<>());
+            waiters[i][0] = new ArrayDeque<>();
+            waiters[i][1] = new ArrayDeque<>();
         }
     }
 
-    public synchronized HashSet<PersonRequest> reset() {
+    private static int dirIndex(int dirFlag) {
+        return dirFlag == 1 ? 0 : 1;
+    }
+
+    public HashSet<PersonRequest> reset() {
         HashSet<PersonRequest> unfinishedReq = new HashSet<>();
-        for (HashSet<PersonRequest> hashSet : table.values()) {
-            unfinishedReq.addAll(hashSet);
-        }
-        for (HashSet<PersonRequest> hashSet : table.values()) {
-            hashSet.clear();
+        for (int i = minFloor; i <= maxFloor; i++) {
+            unfinishedReq.addAll(waiters[i][0]);
+            unfinishedReq.addAll(waiters[i][1]);
+            waiters[i][0].clear();
+            waiters[i][1].clear();
         }
-        notifyAll();
+        size = 0;
+        paraNum = 0;
         return unfinishedReq;
     }
 
     /**
-     * Search the fr_table to find out how many waiters can be picked
-     * up in the given floor by the elevator of the given direction.
+     * Find out how many waiters can be picked up in the given floor
+     * by the elevator of the given direction.
      * @param floor the target floor to be inquired
      * @param dirFlag the direction the elevator is going next
      * @return the number of waiters(requests) matching the requirement
      * @implNote    The dirFlag is not the direction of the elevator itself,
      *              but where it's going next.
      */
-    public synchronized int getFloorWaiterNum(int floor, int dirFlag) {
-        int num = 0;
-        for (PersonRequest personRequest : table.get(floor)) {
-            int dir = personRequest.getFromFloor() < personRequest.getToFloor() ?
-                    1 : -1; // same floor not allowed
-            if (dir == dirFlag) {
-                num++;
-            }
-        }
-        notifyAll();
-        return num;
+    public int getFloorWaiterNum(int floor, int dirFlag) {
+        return dirFlag == 0 ? 0 : waiters[floor][dirIndex(dirFlag)].size();
     }
 
     /**
-     * Read the fr_table and give a list of loadable waiters.
+     * Take the loadable waiters out of the fr_table, in arrival order.
      * <p>
      *     If the elevator can't carry all waiters available, the
      *     method only get part of it so that the elevator barely be filled.
@@ -74,63 +79,82 @@ public class FloorRequestTable {
      * @param floor         the floor to search
      * @param dirFlag       the direction the elevator is going next
      * @param restSpace     the space left on the elevator
-     * @return              a set of waiters satisfying the conditions
+     * @param to            where the waiters are appended
+     * @return              the number of waiters taken
      */
-    public synchronized HashSet<PersonRequest> getFloorWaiters(
-            int floor, int dirFlag, int restSpace) {
-        HashSet<PersonRequest> ret = new HashSet<>(table.get(floor));
-        HashSet<PersonRequest> toRemove = new HashSet<>();
+    public int getFloorWaiters(
+            int floor, int dirFlag, int restSpace, ArrayList<PersonRequest> to) {
+        if (dirFlag == 0) {
+            return 0;
+        }
+        ArrayDeque<PersonRequest> queue = waiters[floor][dirIndex(dirFlag)];
         int num = 0;
-        for (PersonRequest personRequest : ret) {
-            int dir = personRequest.getFromFloor() < personRequest.getToFloor() ?
-                    1 : -1; // same floor not allowed
-            if (dir == dirFlag) {
-                toRemove.add(personRequest);
-                num++;
-                if (num == restSpace) {
-                    break;
-                }
+        while (num < restSpace && !queue.isEmpty()) {
+            PersonRequest personRequest = queue.poll();
+            if (personRequest instanceof ParaRequest) {
+                paraNum--;
             }
+            to.add(personRequest);
+            num++;
         }
-        Iterator<PersonRequest> iterator = ret.iterator();
-        while (iterator.hasNext()) {
-            if (!toRemove.contains(iterator.next())) {
-                iterator.remove();
-            }
+        size -= num;  // loaded waiters deleted
+        return num;
+    }
+
+    /**
+     * Copy every waiter of the table to the given list.
+     */
+    public void getAllWaiters(ArrayList<PersonRequest> to) {
+        for (int i = minFloor; i <= maxFloor; i++) {
+            to.addAll(waiters[i][0]);
+            to.addAll(waiters[i][1]);
         }
-        table.get(floor).removeAll(toRemove); // loaded waiters deleted
-        notifyAll();
-        return ret;
     }
 
-    public synchronized void addRequest(PersonRequest request) {
-        // add the request to its from-floor
-        Debugger.dbgPrintln("fromflr=" + request.getFromFloor());
-        table.get(request.getFromFloor()).add(request);
-        notifyAll();
+    public int size() {
+        return size;
     }
 
-    public synchronized boolean hasParaReq() {
-        for (HashSet<PersonRequest> hashSet : table.values()) {
-            for (PersonRequest personRequest : hashSet) {
-                if (personRequest instanceof ParaRequest) {
-                    notifyAll();
-                    return true;
-                }
-            }
+    public void addRequest(PersonRequest request) {
+        // add the request to its from-floor
+        if (Trace.on(Trace.elevator)) {
+            Trace.event(Trace.tableAdd, request.getPersonId(), request.getFromFloor(),
+                    request.getToFloor());
         }
-        notifyAll();
-        return false;
+        int dirFlag = request.getFromFloor() < request.getToFloor() ?
+                1 : -1; // same floor not allowed
+        waiters[request.getFromFloor()][dirIndex(dirFlag)].add(request);
+        size++;
+        if (request instanceof ParaRequest) {
+            paraNum++;
+        }
+    }
+
+    public boolean hasParaReq() {
+        return paraNum > 0;
     }
 
-    public synchronized void setRange(int min, int max) {
+    /**
+     * @return the waiters taken out, those of the floors out of the new range
+     */
+    public HashSet<PersonRequest> setRange(int min, int max) {
+        HashSet<PersonRequest> dropped = new HashSet<>();
         for (int i = minFloor; i <= maxFloor; i++) {
             if (i < min || i > max) {
-                table.remove(i);
+                for (ArrayDeque<PersonRequest> queue : waiters[i]) {
+                    for (PersonRequest personRequest : queue) {
+                        if (personRequest instanceof ParaRequest) {
+                            paraNum--;
+                        }
+                    }
+                    size -= queue.size();
+                    dropped.addAll(queue);
+                    queue.clear();
+                }
             }
         }
         minFloor = min;
         maxFloor = max;
-        notifyAll();
+        return dropped;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// thread safe, lock free
+
+/**
+ * A histogram of durations(in us) with log-linear buckets: exact below 32,
+ * and 16 buckets per power of 2 above, so a percentile is within about 6%
+ * of the recorded value.
+ * <p>
+ *     Recording is a few atomic adds on preallocated arrays; no allocation
+ *     and no locking, so any thread may record at any time.
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int linear = 32;
+    private static final int subBuckets = 16;
+    private static final int subBits = 4;
+    // the highest bit a long value may have is bit 62
+    private static final int bucketNum = linear + (62 - subBits) * subBuckets;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(bucketNum);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long seen = max.get();
+        while (value > seen && !max.compareAndSet(seen, value)) {
+            seen = max.get();
+        }
+    }
+
+    private static int indexOf(long value) {
+        if (value < linear) {
+            return (int) value;
+        }
+        // the top 5 bits of the value: 1 and the sub-bucket
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - subBits;
+        final int sub = (int) (value >>> shift) - subBuckets;
+        return linear + (shift - 1) * subBuckets + sub;
+    }
+
+    private static long highestOf(int index) {
+        if (index < linear) {
+            return index;
+        }
+        final int shift = (index - linear) / subBuckets + 1;
+        final long sub = (index - linear) % subBuckets + subBuckets;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean of the records, 0 if empty
+     */
+    public double getMean() {
+        return (double) sum.get() / Math.max(count.get(), 1);
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param fraction e.g. 0.99
+     * @return the highest value of the bucket holding that fraction of the
+     *         records, at most the max; 0 if empty
+     */
+    public long percentile(double fraction) {
+        final long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < bucketNum; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        final long num = Math.max(count.get(), 1);
+        return String.format(
+                "@Latency{name=%s,count=%d,mean=%.1fms,p50=%.1fms,p95=%.1fms,p99=%.1fms,"
+                        + "max=%.1fms}",
+                name, count.get(), sum.get() / 1e3 / num, percentile(0.5) / 1e3,
+                percentile(0.95) / 1e3, percentile(0.99) / 1e3, max.get() / 1e3
+        );
+    }
+}
@@ -0,0 +1,83 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// thread safe
+
+/**
+ * Starts the server, buffer and elevator loops, on platform threads or on
+ * virtual threads.
+ * <p>
+ *     The mode is chosen with the system property elevator.threads: "platform"
+ *     (the default) starts each loop as its own Thread, "virtual" runs the
+ *     loop's run() on a virtual thread, so that hundreds of shafts don't hold
+ *     hundreds of platform threads. Virtual threads come with JDK 21; they
+ *     are looked up reflectively, and platform threads are used if the
+ *     running JVM doesn't have them.
+ * </p>
+ */
+public class Launcher {
+    private static final Method ofVirtual;
+    private static final Method builderName;
+    private static final Method builderStart;
+    private static final boolean virtual;
+    // every started thread, so that the main thread can wait for virtual(daemon) ones
+    private static final ConcurrentLinkedQueue<Thread> started = new ConcurrentLinkedQueue<>();
+
+    static {
+        Method of = null;
+        Method name = null;
+        Method start = null;
+        if ("virtual".equals(System.getProperty("elevator.threads", "platform"))) {
+            try {
+                of = Thread.class.getMethod("ofVirtual");
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                name = builder.getMethod("name", String.class);
+                start = builder.getMethod("start", Runnable.class);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Launcher: no virtual threads in this JVM, using platform ones");
+                of = null;
+            }
+        }
+        ofVirtual = of;
+        builderName = name;
+        builderStart = start;
+        virtual = of != null;
+    }
+
+    private Launcher() {}
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Start the loop of the given thread object.
+     * @implNote In virtual mode the object itself is never started: its run()
+     * is executed by a new virtual thread, which is returned.
+     */
+    public static Thread start(Thread loop) {
+        Thread thread = loop;
+        if (virtual) {
+            try {
+                Object builder = builderName.invoke(ofVirtual.invoke(null), loop.getName());
+                thread = (Thread) builderStart.invoke(builder, loop);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            loop.start();
+        }
+        started.add(thread);
+        return thread;
+    }
+
+    /**
+     * Wait until every thread started so far, and those they start, has ended.
+     */
+    public static void awaitAll() throws InterruptedException {
+        Thread thread;
+        while ((thread = started.poll()) != null) {
+            thread.join();
+        }
+    }
+}
@@ -1,21 +1,52 @@
 import com.oocourse.elevator3.ElevatorInput;
 import com.oocourse.elevator3.Request;
-import com.oocourse.elevator3.TimableOutput;
-import tools.Debugger;
+import tools.Output;
+import tools.Trace;
 
 import java.io.IOException;
+import java.nio.channels.Channels;
 
 public class Main {
     public static void main(String[] args) {
-        // initialize timed-output class
-        TimableOutput.initStartTimestamp();
+        if ("des".equals(System.getProperty("elevator.engine", "threads"))) {
+            // run in virtual time on this thread
+            try {
+                new SimulationEngine(System.in).run();
+            } catch (IOException e) {
+                System.out.println("SimulationEngine.run(): IOException caught");
+            } finally {
+                Metrics.report();
+            }
+            return;
+        }
+        // initialize timed output, printed by a writer thread with elevator.output=async
+        Output.start();
         // prepare the request queue for server and input reader
         RequestQueue requestQueue = new RequestQueue();
         ServerThread serverThread = new ServerThread(requestQueue);
         // call the elevator server
-        serverThread.start();
-        // read requests from STDIN and add it to the request queue
-        readRequests(requestQueue);
+        Launcher.start(serverThread);
+        // read requests from STDIN and add it to the request queue; ElevatorInput
+        // only takes the course building, and prints RESET_ACCEPT past Output
+        if ("nio".equals(System.getProperty("elevator.input", "scanner"))
+                || !BuildingConfig.get().isCourseBuilding() || Output.isAsync()) {
+            try {
+                new RequestParser(Channels.newChannel(System.in)).readRequests(requestQueue);
+            } catch (IOException e) {
+                System.out.println("RequestParser.readRequests(): IOException caught");
+                requestQueue.setEnd(true);
+            }
+        } else {
+            readRequests(requestQueue);
+        }
+        // virtual threads don't keep the JVM alive, wait for them
+        try {
+            Launcher.awaitAll();
+        } catch (InterruptedException e) {
+            System.out.println("Main: interrupted in waiting for threads");
+        }
+        Output.shutdown();
+        Metrics.report();
     }
 
     /**
@@ -26,7 +57,9 @@ public class Main {
         // Reading requests from STDIN.
         ElevatorInput elevatorInput = new ElevatorInput(System.in);
         while (true) {
-            Debugger.dbgPrintln("@Thread{Main.readRequests}: running", "read requests");
+            if (Trace.on(Trace.readRequests)) {
+                Trace.event(Trace.inputRunning);
+            }
             // try to get a new request
             /* NOTE: THESE FORMATS ARE SPECIALIZED IN HW5
               Structure of a request:
@@ -44,7 +77,9 @@ public class Main {
             Request request = elevatorInput.nextRequest();
             if (request == null) {  // failed - no more new request from STDIN
                 requestQueue.setEnd(true);
-                Debugger.dbgPrintln("@Thread{Main.readRequests}: exiting", "read requests");
+                if (Trace.on(Trace.readRequests)) {
+                    Trace.event(Trace.inputExit);
+                }
                 break;
             } else {  // succeeded
                 requestQueue.addRequest(request);
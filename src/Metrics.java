@@ -0,0 +1,249 @@
+import com.oocourse.elevator3.PersonRequest;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// thread safe: recording never blocks; the report is made after every thread ended
+
+/**
+ * Latency and work metrics of a run.
+ * <p>
+ *     Enabled with elevator.metrics=true, or by giving elevator.metricsFile
+ *     to write the report to instead of STDERR. The switch is a static final
+ *     flag, so the call sites, guarded by {@link #on()}, cost nothing when
+ *     it's off. elevator.dispatchStats records them as well, for the wait
+ *     the DispatchStats report, but prints no report of its own.
+ * </p>
+ * <p>
+ *     Each passenger's ingest(taken in from the input), first take by a
+ *     dispatcher, first RECEIVE, first IN and final OUT are stamped(in us,
+ *     on the virtual clock of the simulation if there is one). A finished
+ *     trip is recorded into the histograms of the queue dwell(ingest to
+ *     take), receive(ingest to first RECEIVE), wait(ingest to first IN), ride(first IN to final OUT, any
+ *     transfer included) and total time. Each car counts the floors it
+ *     moved, its door cycles, and the time it spent resetting and idle
+ *     (waiting for commands); a car's counters are written by its own
+ *     thread only. The completion time is the time of the last final OUT.
+ * </p>
+ */
+public class Metrics {
+    private static final boolean reported = Boolean.getBoolean("elevator.metrics")
+            || System.getProperty("elevator.metricsFile") != null;
+    private static final boolean enabled = reported
+            || Boolean.getBoolean("elevator.dispatchStats");
+    private static final long start = System.nanoTime();
+    private static LongSupplier virtualClock = null;  // in ms
+
+    private static final ConcurrentHashMap<Integer, Trip> trips = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Car> cars = new ConcurrentHashMap<>();
+    private static final LatencyHistogram dwell = new LatencyHistogram("dwell");
+    private static final LatencyHistogram receiveDelay = new LatencyHistogram("receive");
+    private static final LatencyHistogram wait = new LatencyHistogram("wait");
+    private static final LatencyHistogram ride = new LatencyHistogram("ride");
+    private static final LatencyHistogram total = new LatencyHistogram("total");
+    // finished after a transfer or a forced OUT
+    private static final AtomicLong transfers = new AtomicLong();
+    private static final AtomicLong lastArrive = new AtomicLong();
+
+    /**
+     * The stamps of one passenger. Each is written once, by the thread
+     * handling the passenger at that step; the queues and locks between the
+     * steps order the writes.
+     */
+    private static class Trip {
+        private final long ingest;
+        private long taken = -1;
+        private long received = -1;
+        private long firstIn = -1;
+        private int legs = 0;  // OUTs before the final one: transfers and resets
+
+        Trip(long ingest) {
+            this.ingest = ingest;
+        }
+    }
+
+    /**
+     * The counters of one car, written by its thread(or agent) only.
+     */
+    private static class Car {
+        private long floors = 0;
+        private long doors = 0;
+        private long resetMicros = 0;
+        private long idleMicros = 0;
+    }
+
+    /**
+     * @return true if metrics are recorded; guard each call site with it
+     */
+    public static boolean on() {
+        return enabled;
+    }
+
+    public static void useVirtualClock(LongSupplier clock) {
+        virtualClock = clock;
+    }
+
+    /**
+     * @return the time in us, since the start or on the virtual clock
+     */
+    public static long now() {
+        LongSupplier clock = virtualClock;
+        return clock != null ? clock.getAsLong() * 1000 : (System.nanoTime() - start) / 1000;
+    }
+
+    public static void ingest(PersonRequest request) {
+        trips.putIfAbsent(request.getPersonId(), new Trip(now()));
+    }
+
+    public static void taken(PersonRequest request) {
+        Trip trip = trips.get(request.getPersonId());
+        if (trip != null && trip.taken < 0) {
+            trip.taken = now();
+            dwell.record(trip.taken - trip.ingest);
+        }
+    }
+
+    public static void receive(PersonRequest request) {
+        Trip trip = trips.get(request.getPersonId());
+        if (trip != null && trip.received < 0) {
+            trip.received = now();
+            receiveDelay.record(trip.received - trip.ingest);
+        }
+    }
+
+    public static void in(PersonRequest request) {
+        Trip trip = trips.get(request.getPersonId());
+        if (trip != null && trip.firstIn < 0) {
+            trip.firstIn = now();
+            wait.record(trip.firstIn - trip.ingest);
+        }
+    }
+
+    /**
+     * An OUT short of the destination: at a transfer floor, or forced by a reset.
+     */
+    public static void transferOut(PersonRequest request) {
+        Trip trip = trips.get(request.getPersonId());
+        if (trip != null) {
+            trip.legs++;
+        }
+    }
+
+    /**
+     * The OUT at the destination: the trip is done.
+     */
+    public static void arrive(PersonRequest request) {
+        Trip trip = trips.remove(request.getPersonId());
+        if (trip == null) {
+            return;
+        }
+        final long now = now();
+        ride.record(now - (trip.firstIn < 0 ? now : trip.firstIn));
+        total.record(now - trip.ingest);
+        if (trip.legs > 0) {
+            transfers.incrementAndGet();
+        }
+        lastArrive.accumulateAndGet(now, Math::max);
+    }
+
+    private static Car car(String eid) {
+        return cars.computeIfAbsent(eid, key -> new Car());
+    }
+
+    public static void carMove(String eid) {
+        car(eid).floors++;
+    }
+
+    public static void carDoor(String eid) {
+        car(eid).doors++;
+    }
+
+    public static void carReset(String eid, long micros) {
+        car(eid).resetMicros += micros;
+    }
+
+    public static void carIdle(String eid, long micros) {
+        car(eid).idleMicros += micros;
+    }
+
+    /**
+     * @return the wait histogram: from the ingest of each passenger to its
+     *         first IN, in us
+     */
+    public static LatencyHistogram getWait() {
+        return wait;
+    }
+
+    /**
+     * The figures of the report as named numbers, for the benchmark harness:
+     * counts, the completion time and the wait and trip(total) percentiles in
+     * ms, and the floors and door cycles of all cars.
+     */
+    public static Map<String, Number> summary() {
+        LinkedHashMap<String, Number> summary = new LinkedHashMap<>();
+        summary.put("finished", total.getCount());
+        summary.put("unfinished", trips.size());
+        summary.put("rerouted", transfers.get());
+        summary.put("completionMs", lastArrive.get() / 1e3);
+        putPercentiles(summary, "wait", wait);
+        putPercentiles(summary, "trip", total);
+        long floors = 0;
+        long doors = 0;
+        for (Car car : cars.values()) {
+            floors += car.floors;
+            doors += car.doors;
+        }
+        summary.put("floors", floors);
+        summary.put("doors", doors);
+        return summary;
+    }
+
+    private static void putPercentiles(Map<String, Number> summary, String name,
+                                       LatencyHistogram histogram) {
+        summary.put(name + "P50Ms", histogram.percentile(0.5) / 1e3);
+        summary.put(name + "P90Ms", histogram.percentile(0.9) / 1e3);
+        summary.put(name + "P99Ms", histogram.percentile(0.99) / 1e3);
+        summary.put(name + "MaxMs", histogram.getMax() / 1e3);
+    }
+
+    /**
+     * Print the report to elevator.metricsFile, or to STDERR, if asked for.
+     */
+    public static void report() {
+        if (!reported) {
+            return;
+        }
+        final String file = System.getProperty("elevator.metricsFile");
+        PrintStream out = System.err;
+        if (file != null) {
+            try {
+                out = new PrintStream(file);
+            } catch (FileNotFoundException e) {
+                System.err.println("Metrics.report(): cannot write " + file);
+            }
+        }
+        out.printf("@Metrics{finished=%d,unfinished=%d,rerouted=%d,completion=%.3fs}%n",
+                total.getCount(), trips.size(), transfers.get(), lastArrive.get() / 1e6);
+        out.println(dwell);
+        out.println(receiveDelay);
+        out.println(wait);
+        out.println(ride);
+        out.println(total);
+        for (Map.Entry<String, Car> entry : new TreeMap<>(cars).entrySet()) {
+            Car car = entry.getValue();
+            out.printf("@Car{eid=%s,floors=%d,doors=%d,reset=%.1fms,idle=%.1fms}%n",
+                    entry.getKey(), car.floors, car.doors, car.resetMicros / 1e3,
+                    car.idleMicros / 1e3);
+        }
+        out.flush();
+        if (out != System.err) {
+            out.close();
+        }
+    }
+}
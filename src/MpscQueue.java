@@ -0,0 +1,92 @@
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// thread safe: any number of producers, ONE consumer
+
+/**
+ * An unbounded, lock-free multi-producer/single-consumer linked queue.
+ * <p>
+ *     Producers swing the tail with a single atomic exchange and then link
+ *     the old tail to the new node; the consumer owns the head and never
+ *     contends with producers. Both {@link #offer} and {@link #poll} are O(1).
+ * </p>
+ * @implNote Only one thread may call {@link #poll} or {@link #drainTo} at a
+ * time. A producer preempted between the exchange and the link makes its
+ * node briefly invisible; {@link #poll} spins over that short window instead
+ * of reporting an empty queue.
+ */
+public class MpscQueue<E> {
+    private static final class Node<E> {
+        private E value;
+        private volatile Node<E> next;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+
+    // written by the consumer only, volatile so that isEmpty() can be asked anywhere
+    private volatile Node<E> head;  // the node before the first element
+    private final AtomicReference<Node<E>> tail;
+    private final AtomicInteger depth = new AtomicInteger();
+
+    public MpscQueue() {
+        head = new Node<>(null);
+        tail = new AtomicReference<>(head);
+    }
+
+    public void offer(E e) {
+        Node<E> node = new Node<>(e);
+        depth.getAndIncrement();
+        Node<E> prev = tail.getAndSet(node);
+        prev.next = node;
+    }
+
+    /**
+     * @return the first element, or null if the queue is empty
+     */
+    public E poll() {
+        Node<E> next = head.next;
+        if (next == null) {
+            if (head == tail.get()) {
+                return null;
+            }
+            // a producer has taken the tail but not linked yet
+            while ((next = head.next) == null) {
+                Thread.onSpinWait();
+            }
+        }
+        E e = next.value;
+        next.value = null;  // the node becomes the new sentinel
+        head = next;
+        depth.getAndDecrement();
+        return e;
+    }
+
+    /**
+     * Move every currently visible element to the given collection.
+     * @return the number of elements moved
+     */
+    public int drainTo(Collection<? super E> to) {
+        int num = 0;
+        E e;
+        while ((e = poll()) != null) {
+            to.add(e);
+            num++;
+        }
+        return num;
+    }
+
+    public boolean isEmpty() {
+        return head.next == null && head == tail.get();
+    }
+
+    /**
+     * The number of queued elements. Producers count before linking, so the
+     * value may run ahead of what {@link #poll} can see for a moment.
+     */
+    public int size() {
+        return depth.get();
+    }
+}
@@ -0,0 +1,306 @@
+import com.oocourse.elevator3.DoubleCarResetRequest;
+import com.oocourse.elevator3.NormalResetRequest;
+import com.oocourse.elevator3.PersonRequest;
+import com.oocourse.elevator3.Request;
+import tools.Output;
+import tools.Trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * A streaming request reader, the NIO alternative to ElevatorInput.
+ * <p>
+ *     Lines are parsed straight from a ByteBuffer, without regex, String
+ *     splitting or per-line Strings; the only objects created for a valid line
+ *     are the Request itself. The requests parsed from one read are emitted to
+ *     the request queue as a batch.
+ * </p>
+ * <p>
+ *     The grammar and checks are those of ElevatorInput:
+ *     <ul>
+ *         <li>uid-FROM-x-TO-y: unique uid, floors in the building and not equal;</li>
+ *         <li>RESET-Elevator-eid-capacity-speed: eid one of the shafts;</li>
+ *         <li>RESET-DCElevator-eid-transfer-capacity-speed: eid one of the shafts.</li>
+ *     </ul>
+ *     The floors and shafts are those of the {@link BuildingConfig}, [1, 11]
+ *     and [1, 6] by default.
+ *     An accepted reset is echoed as RESET_ACCEPT, and an invalid line is
+ *     reported to STDERR and skipped. Unlike ElevatorInput, an optional
+ *     "[time]" prefix is skipped, so raw traces can be read as well.
+ * </p>
+ */
+public class RequestParser {
+    private static final int minFloor = BuildingConfig.get().getMinFloor();
+    private static final int maxFloor = BuildingConfig.get().getMaxFloor();
+    private static final int maxElevatorId = BuildingConfig.get().getCarNum();
+    private static final byte[] fromToken = "-FROM-".getBytes();
+    private static final byte[] toToken = "-TO-".getBytes();
+    private static final byte[] resetToken = "RESET-Elevator-".getBytes();
+    private static final byte[] dcResetToken = "RESET-DCElevator-".getBytes();
+
+    private final ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private static final int personIdBitsetLimit = 1 << 24;
+    private long[] existedPersonId = new long[16];  // bitset of small person ids
+    private final HashSet<Integer> existedLargePersonId = new HashSet<>();
+    private final ArrayList<Request> batch = new ArrayList<>();
+    // parsing cursor and results, valid while a line is being parsed
+    private int pos;
+    private int end;
+    private long number;
+    private double decimal;
+
+    public RequestParser(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(1 << 16);
+    }
+
+    /**
+     * Read all requests from the channel and add them to the request queue,
+     * then mark the queue as ended.
+     */
+    public void readRequests(RequestQueue requestQueue) throws IOException {
+        boolean eof = false;
+        while (!eof) {
+            if (Trace.on(Trace.readRequests)) {
+                Trace.event(Trace.inputRunning);
+            }
+            if (!buffer.hasRemaining()) {  // a line longer than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            eof = channel.read(buffer) == -1;
+            buffer.flip();
+            byte[] bytes = buffer.array();
+            int lineBegin = 0;
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (bytes[i] == '\n') {
+                    parseLine(bytes, lineBegin, i);
+                    lineBegin = i + 1;
+                }
+            }
+            if (eof && lineBegin < buffer.limit()) {  // last line without a line break
+                parseLine(bytes, lineBegin, buffer.limit());
+                lineBegin = buffer.limit();
+            }
+            buffer.position(lineBegin);
+            buffer.compact();
+            if (!batch.isEmpty()) {
+                requestQueue.addRequests(batch);
+                batch.clear();
+            }
+        }
+        requestQueue.setEnd(true);
+        if (Trace.on(Trace.readRequests)) {
+            Trace.event(Trace.inputExit);
+        }
+    }
+
+    private void parseLine(byte[] bytes, int begin, int lineEnd) {
+        Request request = parseRequest(bytes, begin, lineEnd);
+        if (request != null) {
+            batch.add(request);
+        }
+    }
+
+    /**
+     * Parse a single line, without its line break.
+     * @return the request, or null if the line is invalid(reported to STDERR)
+     */
+    public Request parseRequest(byte[] bytes, int begin, int lineEnd) {
+        pos = begin;
+        end = lineEnd;
+        if (end > pos && bytes[end - 1] == '\r') {
+            end--;
+        }
+        if (pos < end && bytes[pos] == '[') {  // skip a time stamp
+            while (pos < end && bytes[pos] != ']') {
+                pos++;
+            }
+            pos++;
+        }
+        final int lineBegin = pos;
+        Request request = null;
+        if (pos < end && bytes[pos] >= '0' && bytes[pos] <= '9') {
+            request = parsePersonRequest(bytes);
+        } else if (match(bytes, resetToken)) {
+            request = parseNormalReset(bytes);
+        } else if (match(bytes, dcResetToken)) {
+            request = parseDoubleCarReset(bytes);
+        }
+        if (request == null) {
+            System.err.println("invalid request: " + new String(bytes, lineBegin,
+                    Math.max(end - lineBegin, 0)));
+        }
+        return request;
+    }
+
+    private PersonRequest parsePersonRequest(byte[] bytes) {
+        if (!parseNumber(bytes, false) || number > Integer.MAX_VALUE) {
+            return null;
+        }
+        final int personId = (int) number;
+        if (!match(bytes, fromToken) || !parseNumber(bytes, true)) {
+            return null;
+        }
+        final long fromFloor = number;
+        if (!match(bytes, toToken) || !parseNumber(bytes, true)) {
+            return null;
+        }
+        final long toFloor = number;
+        while (pos < end && Character.isWhitespace(bytes[pos])) {
+            pos++;
+        }
+        if (pos != end || !isValidFloor(fromFloor) || !isValidFloor(toFloor)
+                || fromFloor == toFloor || !markPersonId(personId)) {
+            return null;
+        }
+        return new PersonRequest((int) fromFloor, (int) toFloor, personId);
+    }
+
+    private NormalResetRequest parseNormalReset(byte[] bytes) {
+        if (!parseNumber(bytes, false) || !isValidElevatorId(number)) {
+            return null;
+        }
+        final int elevatorId = (int) number;
+        if (!match(bytes, '-') || !parseNumber(bytes, false) || number > Integer.MAX_VALUE) {
+            return null;
+        }
+        final int capacity = (int) number;
+        if (!match(bytes, '-') || !parseDecimal(bytes) || pos != end) {
+            return null;
+        }
+        NormalResetRequest request = new NormalResetRequest(elevatorId, capacity, decimal);
+        Output.println(request);  // RESET_ACCEPT, same as ElevatorInput
+        return request;
+    }
+
+    private DoubleCarResetRequest parseDoubleCarReset(byte[] bytes) {
+        if (!parseNumber(bytes, false) || !isValidElevatorId(number)) {
+            return null;
+        }
+        final int elevatorId = (int) number;
+        if (!match(bytes, '-') || !parseNumber(bytes, false) || number > Integer.MAX_VALUE) {
+            return null;
+        }
+        final int transferFloor = (int) number;
+        if (!match(bytes, '-') || !parseNumber(bytes, false) || number > Integer.MAX_VALUE) {
+            return null;
+        }
+        final int capacity = (int) number;
+        if (!match(bytes, '-') || !parseDecimal(bytes) || pos != end) {
+            return null;
+        }
+        DoubleCarResetRequest request =
+                new DoubleCarResetRequest(elevatorId, transferFloor, capacity, decimal);
+        Output.println(request);  // RESET_ACCEPT, same as ElevatorInput
+        return request;
+    }
+
+    private boolean match(byte[] bytes, byte[] token) {
+        if (end - pos < token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (bytes[pos + i] != token[i]) {
+                return false;
+            }
+        }
+        pos += token.length;
+        return true;
+    }
+
+    private boolean match(byte[] bytes, char c) {
+        if (pos < end && bytes[pos] == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parse an integer into {@link #number}.
+     * @return false if there's no digit, or the value overflows an int
+     */
+    private boolean parseNumber(byte[] bytes, boolean signed) {
+        boolean negative = false;
+        if (signed && pos < end && (bytes[pos] == '-' || bytes[pos] == '+')) {
+            negative = bytes[pos] == '-';
+            pos++;
+        }
+        final int begin = pos;
+        long value = 0;
+        while (pos < end && bytes[pos] >= '0' && bytes[pos] <= '9') {
+            value = value * 10 + (bytes[pos] - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return false;
+            }
+            pos++;
+        }
+        number = negative ? -value : value;
+        return pos != begin && number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Parse a "\d+\.\d+" decimal into {@link #decimal}. Short digit strings are
+     * kept exact and divided once, which rounds the same as Double.parseDouble.
+     */
+    private boolean parseDecimal(byte[] bytes) {
+        final int begin = pos;
+        long mantissa = 0;
+        long scale = 0;  // 0 before the point
+        int digits = 0;
+        while (pos < end) {
+            if (bytes[pos] >= '0' && bytes[pos] <= '9') {
+                if (++digits <= 15) {
+                    mantissa = mantissa * 10 + (bytes[pos] - '0');
+                    scale *= 10;
+                }
+            } else if (bytes[pos] == '.' && scale == 0 && digits > 0) {
+                scale = 1;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (scale == 0 || bytes[pos - 1] == '.') {  // no point, or no digit after it
+            return false;
+        }
+        decimal = digits > 15  // not exact in a long any more, rare
+                ? Double.parseDouble(new String(bytes, begin, pos - begin))
+                : (double) mantissa / scale;
+        return true;
+    }
+
+    private boolean isValidFloor(long floor) {
+        return floor >= minFloor && floor <= maxFloor;
+    }
+
+    private boolean isValidElevatorId(long elevatorId) {
+        return elevatorId >= 1 && elevatorId <= maxElevatorId;
+    }
+
+    private boolean markPersonId(int personId) {
+        if (personId >= personIdBitsetLimit) {
+            return existedLargePersonId.add(personId);
+        }
+        int word = personId >>> 6;
+        if (word >= existedPersonId.length) {
+            existedPersonId = Arrays.copyOf(existedPersonId,
+                    Math.max(word + 1, existedPersonId.length * 2));
+        }
+        long bit = 1L << (personId & 63);
+        if ((existedPersonId[word] & bit) != 0) {
+            return false;  // duplicated person id
+        }
+        existedPersonId[word] |= bit;
+        return true;
+    }
+}
@@ -1,55 +1,171 @@
+import com.oocourse.elevator3.PersonRequest;
 import com.oocourse.elevator3.Request;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
-// thread safe
+// thread safe, lock free: many producers, a single consumer
 public class RequestQueue {
-    private final ArrayList<Request> requests;
-    private boolean isEnd;
+    private final MpscQueue<Request> requests;
+    private volatile boolean isEnd;
+    /**
+     * The consumer thread, recorded on its first take. Producers unpark it
+     * instead of notifying a monitor; the park permit keeps a wakeup that
+     * comes before the consumer parks.
+     */
+    private volatile Thread consumer;
+    /**
+     * Requests taken in and not finished yet: a person until the OUT at its
+     * destination, through any transfer, deferral or re-dispatch on the way,
+     * and a reset until its RESET_END. The consumer is noted when it drops to
+     * zero after the end of input, so it needn't poll for the end. It counts
+     * persons, not queue entries: a requeue, handoff or deferral moves a
+     * person without counting it again, and each person is finished once,
+     * on the OUT at its destination, a forced one included.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
 
     public RequestQueue() {
-        requests = new ArrayList<>();
+        requests = new MpscQueue<>();
         this.isEnd = false;
     }
 
-    public synchronized void addRequest(Request request) {
-        requests.add(request);
-        notifyAll();
+    /**
+     * Take in a new request from the input.
+     */
+    public void addRequest(Request request) {
+        inFlight.incrementAndGet();
+        if (Metrics.on() && request instanceof PersonRequest) {
+            Metrics.ingest((PersonRequest) request);
+        }
+        requests.offer(request);
+        note();
     }
 
-    public synchronized Request getRequest() {
-        if (requests.isEmpty()) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    /**
+     * Take in new requests from the input.
+     */
+    public void addRequests(Collection<? extends Request> toAdd) {
+        inFlight.addAndGet(toAdd.size());
+        for (Request request : toAdd) {
+            if (Metrics.on() && request instanceof PersonRequest) {
+                Metrics.ingest((PersonRequest) request);
             }
+            requests.offer(request);
+        }
+        note();
+    }
+
+    /**
+     * Queue again a request already taken in, e.g. a transfer leg, a deferred
+     * or a reset-unloaded person.
+     */
+    public void requeue(Request request) {
+        requests.offer(request);
+        note();
+    }
+
+    public void requeue(Collection<? extends Request> toAdd) {
+        if (toAdd.isEmpty()) {
+            return;
+        }
+        for (Request request : toAdd) {
+            requests.offer(request);
+        }
+        note();
+    }
+
+    /**
+     * Mark a request taken in as finished.
+     */
+    public void finish() {
+        if (inFlight.decrementAndGet() == 0 && isEnd) {
+            note();
+        }
+    }
+
+    /**
+     * @return true if the input has ended and every request taken in is finished
+     */
+    public boolean isDone() {
+        return isEnd && inFlight.get() == 0;  // isEnd first: it's set after the last intake
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Take the first request, waiting once if there isn't any.
+     * @return the request, or null if woken up with nothing queued(e.g. by note()),
+     * or if done
+     */
+    public Request getRequest() {
+        Request request = requests.poll();
+        if (request != null) {
+            return request;
+        }
+        consumer = Thread.currentThread();
+        request = requests.poll();  // a producer may have missed the consumer
+        if (request == null && !isDone()) {  // so may the end
+            LockSupport.park(this);
+            request = requests.poll();
+        }
+        return request;
+    }
+
+    /**
+     * Take the first request, waiting at most the given time for one.
+     * @return the request, or null if timed out, interrupted or ended
+     */
+    public Request getRequest(long timeout, TimeUnit unit) {
+        Request request = requests.poll();
+        if (request != null) {
+            return request;
         }
-        if (requests.isEmpty()) {
-            return null;
+        consumer = Thread.currentThread();
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while ((request = requests.poll()) == null) {
+            long rest = deadline - System.nanoTime();
+            if (rest <= 0 || isEnd || Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            LockSupport.parkNanos(this, rest);
         }
-        Request request = requests.get(0);
-        requests.remove(0);
-        notifyAll();
         return request;
     }
 
-    public synchronized void setEnd(boolean isEnd) {
+    /**
+     * Move all requests queued at the moment to the given collection.
+     * @return the number of requests moved
+     */
+    public int drainTo(Collection<? super Request> to) {
+        return requests.drainTo(to);
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    public void setEnd(boolean isEnd) {
         this.isEnd = isEnd;
-        notifyAll();
+        note();
     }
 
-    public synchronized boolean isEnd() {
-        notifyAll();
+    public boolean isEnd() {
         return isEnd;
     }
 
-    public synchronized boolean isEmpty() {
-        notifyAll();
+    public boolean isEmpty() {
         return requests.isEmpty();
     }
 
-    public synchronized void note() {
-        notifyAll();
+    public void note() {
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
     }
 }
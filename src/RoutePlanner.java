@@ -0,0 +1,155 @@
+import com.oocourse.elevator3.PersonRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+// not thread safe: used by the scheduling thread only, except noteRangeChange()
+
+/**
+ * Plans the route of a person no single car can carry, as a chain of legs
+ * joined at transfer floors.
+ * <p>
+ *     The floors are connected by the cars: a car links every two floors of
+ *     its serving range. A transfer can only happen at the end of some car's
+ *     range, so those floors(the transfer floors of double-car shafts) are
+ *     the only stops considered besides the person's own floors. The ranges
+ *     are read again after every double-car reset.
+ * </p>
+ * <p>
+ *     The route of least estimated time is searched(Dijkstra) over these
+ *     floors. A leg costs the least, over the operable cars covering it, of
+ *     the time for the car to come to the leg's start, the ride and the door
+ *     cycles, plus a round trip of its range if it's full or going away.
+ * </p>
+ */
+public class RoutePlanner {
+    private final FleetRegistry registry;
+    private final FleetRegistry.CarView view = new FleetRegistry.CarView();
+    private volatile boolean stale = true;
+    // the ends of the car ranges, sorted
+    private int[] transferFloors = new int[0];
+
+    RoutePlanner(FleetRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Called when a car's range changes; the graph is rebuilt on the next plan.
+     */
+    public void noteRangeChange() {
+        stale = true;
+    }
+
+    private void rebuild() {
+        stale = false;
+        TreeSet<Integer> ends = new TreeSet<>();
+        for (int index = 0; index < registry.size(); index++) {
+            registry.read(index, view);
+            ends.add(view.getMinFloor());
+            ends.add(view.getMaxFloor());
+        }
+        transferFloors = ends.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the floor the person finally goes to, following the chain of legs
+     */
+    public static int finalFloor(PersonRequest request) {
+        PersonRequest leg = request;
+        while (leg instanceof ParaRequest) {
+            leg = ((ParaRequest) leg).getNextRequest();
+        }
+        return leg.getToFloor();
+    }
+
+    /**
+     * Plan the route of the person from the request's from-floor to its final
+     * floor.
+     * @return the first leg, a ParaRequest chaining the rest; or null if no
+     * operable car can take the person anywhere for now
+     */
+    public PersonRequest plan(PersonRequest request) {
+        if (stale) {
+            rebuild();
+        }
+        final int from = request.getFromFloor();
+        final int to = finalFloor(request);
+        // the stops: the person's own floors first, then the transfer floors
+        int[] stops = new int[transferFloors.length + 2];
+        stops[0] = from;
+        stops[1] = to;
+        System.arraycopy(transferFloors, 0, stops, 2, transferFloors.length);
+        final int n = stops.length;
+        long[] time = new long[n];
+        int[] previous = new int[n];
+        boolean[] done = new boolean[n];
+        Arrays.fill(time, Long.MAX_VALUE);
+        time[0] = 0;
+        previous[0] = -1;
+        while (true) {
+            int u = -1;
+            for (int i = 0; i < n; i++) {
+                if (!done[i] && time[i] != Long.MAX_VALUE && (u == -1 || time[i] < time[u])) {
+                    u = i;
+                }
+            }
+            if (u == -1) {
+                return null;  // the final floor can't be reached
+            }
+            if (u == 1 || stops[u] == to) {
+                return chain(stops, previous, u, request.getPersonId());
+            }
+            done[u] = true;
+            for (int v = 0; v < n; v++) {
+                if (done[v] || stops[v] == stops[u]) {
+                    continue;
+                }
+                long leg = legTime(stops[u], stops[v]);
+                if (leg != Long.MAX_VALUE && time[u] + leg < time[v]) {
+                    time[v] = time[u] + leg;
+                    previous[v] = u;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the least estimated time(in ms) of a car carrying a person from
+     * the floor to the other, or Long.MAX_VALUE if no operable car covers both
+     */
+    private long legTime(int from, int to) {
+        long best = Long.MAX_VALUE;
+        for (int index = 0; index < registry.size(); index++) {
+            registry.read(index, view);
+            if (!view.isOperable() || !view.containRange(from, to)) {
+                continue;
+            }
+            final long moveTime = registry.get(index).getMoveTime();
+            final int span = view.getMaxFloor() - view.getMinFloor();
+            long time = (Math.abs(view.getFloor() - from) + Math.abs(to - from)) * moveTime
+                    + 2L * (ElevatorThread.openTime + ElevatorThread.closeTime);
+            if (view.getDirection() != Elevator.Direction.STAY && (view.isFull()
+                    || view.getFloor() < from && view.nextDirection() == -1
+                    || view.getFloor() > from && view.nextDirection() == 1)) {
+                time += 2L * span * moveTime;
+            }
+            best = Math.min(best, time);
+        }
+        return best;
+    }
+
+    private PersonRequest chain(int[] stops, int[] previous, int last, int personId) {
+        ArrayList<Integer> floors = new ArrayList<>();
+        for (int i = last; i != -1; i = previous[i]) {
+            floors.add(0, stops[i]);
+        }
+        // built backwards: the last leg is a plain request, the others lead to it
+        PersonRequest leg = new PersonRequest(
+                floors.get(floors.size() - 2), floors.get(floors.size() - 1), personId);
+        for (int i = floors.size() - 3; i >= 0; i--) {
+            leg = new ParaRequest(floors.get(i), floors.get(i + 1), personId, leg);
+        }
+        return leg;
+    }
+}
@@ -3,243 +3,444 @@ import com.oocourse.elevator3.NormalResetRequest;
 import com.oocourse.elevator3.PersonRequest;
 import com.oocourse.elevator3.Request;
 import com.oocourse.elevator3.ResetRequest;
-import tools.Debugger;
+import tools.Trace;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 
 public class ServerThread extends Thread {
-    private Boolean end = false;
+    private volatile boolean end = false;
     private final RequestQueue requestQueue;
-    private final RequestQueue bufferQueue;
-    private final BufferThread bufferThread;
+    // requests no elevator can take for now, released on direction changes
+    private final DeferredStore deferredStore;
+    // eid -> elevator, for routing reset requests
     private final HashMap<String, Elevator> elevators;
+    // index -> elevator with a lock-free snapshot of each, for scheduling
+    private final FleetRegistry registry;
+    // routes of the requests no single elevator can carry
+    private final RoutePlanner routePlanner;
     private final HashMap<String, ElevatorThread> elevatorThreads;
-    private final int initElevatorNum = 6;
+    private final int initElevatorNum;
+    // the shafts are split into this many zones, each scheduled by a thread of
+    // its own; with one zone this thread schedules the whole fleet itself
+    private final int zoneNum;
+    private final Zone[] zones;
+    private final Zone[] zoneOfShaft;  // indexed by shaft id
+    private final Zone[] zoneOfIndex;  // indexed by registry index
+    private final Dispatcher[] dispatchers;  // indexed by zone id
+    private final RequestQueue[] zoneQueues;
+    private final ZoneScheduler[] zoneSchedulers;
+    private int nextZone = 0;  // where the router starts looking, in turn
+    // router counters, for the stats report
+    private long routed = 0;
+    private long handOffs = 0;
+    private long crossZoneRoutes = 0;
+    // times this thread woke up with no request to take, for the stats report
+    private long emptyWakeups = 0;
 
     ServerThread(RequestQueue requestQueue) {
         this.requestQueue = requestQueue;
 
-        this.bufferQueue = new RequestQueue();
-        this.bufferThread = new BufferThread(requestQueue, bufferQueue);
+        BuildingConfig config = BuildingConfig.get();
+        this.deferredStore = new DeferredStore(config.getMinFloor(), config.getMaxFloor());
 
         elevators = new HashMap<>();
         elevatorThreads = new HashMap<>();
+        initElevatorNum = config.getCarNum();
+        registry = new FleetRegistry(initElevatorNum);
+        routePlanner = new RoutePlanner(registry);
+
+        zoneNum = Math.max(1, Math.min(Integer.getInteger("elevator.zones", 1), initElevatorNum));
+        zones = new Zone[zoneNum];
+        dispatchers = new Dispatcher[zoneNum];
+        zoneQueues = new RequestQueue[zoneNum];
+        zoneSchedulers = new ZoneScheduler[zoneNum];
+        for (int i = 0; i < zoneNum; i++) {
+            zones[i] = new Zone(i);
+            if (zoneNum == 1) {
+                zoneQueues[i] = requestQueue;
+                dispatchers[i] = new Dispatcher(this, registry, zones[i], true,
+                        requestQueue, deferredStore);
+            } else {
+                zoneQueues[i] = new RequestQueue();
+                dispatchers[i] = new Dispatcher(this, registry, zones[i], false, zoneQueues[i],
+                        new DeferredStore(config.getMinFloor(), config.getMaxFloor()));
+                zoneSchedulers[i] = new ZoneScheduler(zoneQueues[i], dispatchers[i]);
+            }
+        }
+        // contiguous banks of shafts, as even as possible
+        zoneOfShaft = new Zone[initElevatorNum + 1];
+        for (int shaft = 1; shaft <= initElevatorNum; shaft++) {
+            zoneOfShaft[shaft] = zones[(shaft - 1) * zoneNum / initElevatorNum];
+        }
+        zoneOfIndex = new Zone[2 * initElevatorNum];
+
         for (int i = 0; i < initElevatorNum; i++) {
             String eid = Integer.toString(i + 1); // eid starts from 1
+            final int transFloor = config.getTransFloor(i + 1);
+            if (transFloor != 0) {
+                addDoubleCars(eid, transFloor, config);
+                continue;
+            }
             Elevator elevator = new Elevator(eid);
             elevators.put(eid, elevator);
+            register(elevator);
             ElevatorThread elevatorThread = new ElevatorThread(this, elevator, eid);
             elevatorThreads.put(eid, elevatorThread);
         }
+        for (Zone zone : zones) {
+            zone.refreshRanges(registry);
+        }
     }
 
-    @Override
-    public void start() {
-        super.start();
-        for (ElevatorThread elevatorThread : elevatorThreads.values()) {
-            elevatorThread.start();
+    /**
+     * Set up a shaft which starts as a double-car shaft, the same as after a
+     * double-car reset with the default capacity and speed.
+     */
+    private void addDoubleCars(String eid, int transFloor, BuildingConfig config) {
+        Command command = new Command(true, config.getCapacity(), config.getMoveTime(), transFloor);
+        TransferToken token = new TransferToken();
+        Elevator lower = new Elevator(eid + "-A", config.getMinFloor(), transFloor,
+                transFloor, command);
+        Elevator upper = new Elevator(eid + "-B", transFloor, config.getMaxFloor(),
+                transFloor, command);
+        for (Elevator elevator : new Elevator[]{lower, upper}) {
+            elevators.put(elevator.getEid(), elevator);
+            register(elevator);
         }
-        bufferThread.start();
+        elevatorThreads.put(lower.getEid(),
+                new ElevatorThread(this, lower, lower.getEid(), upper, token, command));
+        elevatorThreads.put(upper.getEid(),
+                new ElevatorThread(this, upper, upper.getEid(), lower, token, command));
+    }
+
+    /**
+     * Add the car to the registry and to the zone of its shaft.
+     */
+    private void register(Elevator elevator) {
+        final int index = registry.register(elevator);
+        Zone zone = zoneOfShaft[Integer.parseInt(BuildingConfig.shaftOf(elevator.getEid()))];
+        zoneOfIndex[index] = zone;
+        zone.addCar(index);
     }
 
     @Override
     public void run() {
+        synchronized (elevatorThreads) {
+            for (ElevatorThread elevatorThread : elevatorThreads.values()) {
+                Launcher.start(elevatorThread);
+            }
+        }
+        if (zoneNum > 1) {
+            for (ZoneScheduler zoneScheduler : zoneSchedulers) {
+                Launcher.start(zoneScheduler);
+            }
+        }
         while (true) {
-            Debugger.dbgPrintln(
-                    "@Thread{ServerThread}: running", "server"
-            );
-            // Exiting condition. EMPTY means no requests left, and END means no more new requests.
-            boolean exit = bufferQueue.isEmpty() && elevatorsFeedbackRequestEnd();
-            exit &= requestQueue.isEmpty() && requestQueue.isEnd();
-            if (exit) {
-                Debugger.dbgPrintln(
-                        "@Thread{ServerThread}: exiting"
-                );
+            if (Trace.on(Trace.server)) {
+                Trace.event(Trace.serverRunning);
+            }
+            // Exiting condition: no more new requests, and every request taken in
+            // is finished. The queue notes this thread when it becomes true.
+            if (requestQueue.isDone()) {
+                if (Trace.on(Trace.server)) {
+                    Trace.event(Trace.serverExit);
+                }
                 // TODO newly created elevator in DCElevator may not be informed
-                synchronized (this) {
-                    end = true;
-                    notifyAll();
+                end = true;
+                // nothing is in flight, so nothing can be requeued into a zone any more
+                if (zoneNum > 1) {
+                    for (RequestQueue zoneQueue : zoneQueues) {
+                        zoneQueue.setEnd(true);
+                    }
                 }
                 synchronized (elevators) {
                     for (Elevator elevator : elevators.values()) {
                         elevator.setEnd();
                     }
                 }
-                bufferQueue.setEnd(true);
-                bufferThread.setStart(false);
+                reportStats();
                 return;
             }
 
             // Try to get a new request from the request queue.
             Request request = requestQueue.getRequest();
             if (request == null) {
+                emptyWakeups++;
                 continue;
             }
             // A valid request get.
-            schedule(request);
+            if (zoneNum == 1) {
+                dispatchers[0].dispatch(request);
+            } else {
+                route(request);
+            }
         }
     }
 
-    public synchronized boolean isEnd() {
-        notifyAll();
-        return end;
+    /**
+     * The front router of a fleet split into zones: a person request goes to
+     * the least loaded zone with a car serving both its floors, where the
+     * load is the persons committed to the zone's cars plus its backlog. A
+     * request no zone can carry alone is planned into legs over the whole
+     * fleet, each leg coming back here in turn(cross-zone handoff).
+     */
+    private void route(Request request) {
+        if (request instanceof ResetRequest) {
+            scheduleReset((ResetRequest) request);
+            return;
+        }
+        PersonRequest person = (PersonRequest) request;
+        Zone best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int k = 0; k < zoneNum; k++) {
+            Zone zone = zones[(nextZone + k) % zoneNum];
+            if (!zone.covers(person.getFromFloor(), person.getToFloor())) {
+                continue;
+            }
+            final int load = zone.getCommitted() + zoneQueues[zone.getId()].size();
+            if (load < bestLoad) {
+                bestLoad = load;
+                best = zone;
+            }
+        }
+        nextZone = (nextZone + 1) % zoneNum;  // ties go round the zones
+        if (best == null) {
+            crossZoneRoutes++;
+            planRoute(person);
+            return;
+        }
+        routed++;
+        zoneQueues[best.getId()].requeue(person);
     }
 
-    private boolean elevatorsFeedbackRequestEnd() {
-        boolean ret = true;
-        synchronized (elevators) {
-            for (Elevator elevator : elevators.values()) {
-                ret &= elevator.isFeedbackRequestEnd();
-            }
-        }
-        return ret;
-    }
-
-    public void noteElevatorDirectionChange() {
-        bufferThread.setStart(true);
-        requestQueue.note();
-    }
-
-    private int schedulePriority(Elevator elevator, PersonRequest request) {
-        int priority = 0;
-        // 5th: random of [0,10)
-        priority += (int) (Math.random() * 10);
-
-        // highest: idle
-        if (elevator.getDirection() == Elevator.Direction.STAY) {
-            return priority;
-        }
-        // moving towards:
-        // 1st: not full
-        if (elevator.isFull()) { return 9999; }
-        // 2nd: shorter distance
-        priority += 1000 * Math.abs(request.getFromFloor() - elevator.getFloor());
-        // 3nd: less load
-        priority += 100 * elevator.getLoad();
-        // CHECKME best fit serving range
-        // 4th:
-        priority += 10 * elevator.fitRange(request);
-
-        return priority;
-    }
-
-    private void schedule(Request inputRequest) {
-        if (inputRequest instanceof PersonRequest) {
-            PersonRequest request = (PersonRequest) inputRequest;
-            // look in (towards + idle) for an elevator of shortest distance
-            int minPriority = 100000;
-            String selectedElevatorId = "";
-            boolean allReset = true;
-            boolean splitRequest = true;
-            boolean allBackwards = true;
-            synchronized (elevators) {
-                for (String eid : elevators.keySet()) {
-                    Elevator elevator = elevators.get(eid);
-                    Debugger.dbgPrintln("schedule for " + eid, "scheduler");
-                    // elevator under reset, not operable
-                    if (elevator.getState() == Elevator.State.RESETTING) {
-                        continue;
-                    }
-                    allReset = false;
-                    // CHECKME check range of request and elevator serving floors
-                    if (!elevator.containRange(request)) {
-                        continue;
-                    }
-                    splitRequest = false;
-                    // if away from the request, jump it
-                    // jump on equal because this leads to uncertainty, the req may not
-                    // get picked up
-                    boolean jump = elevator.getDirection() != Elevator.Direction.STAY &&
-                            elevator.getFloor() == request.getFromFloor();
-                    jump |= elevator.getDirection() != Elevator.Direction.STAY
-                            && elevator.getFloor() < request.getFromFloor()
-                            && elevator.nextDirection() == -1;
-                    jump |= elevator.getDirection() != Elevator.Direction.STAY
-                            && elevator.getFloor() > request.getFromFloor()
-                            && elevator.nextDirection() == 1;
-                    if (jump) {
-                        continue;
-                    }
-                    allBackwards = false;
-                    // measure priority and record
-                    // smaller value of priority means higher priority level!!!
-                    int priority = schedulePriority(elevator, request);
-                    Debugger.dbgPrintln(eid + ": priority=" + priority, "scheduler");
-                    // "<"(instead of <=) means if multiple found, take the 1st
-                    if (priority < minPriority) {
-                        minPriority = priority;
-                        selectedElevatorId = eid;
-                    }
-                }
+    /**
+     * Plan the legs of a request no single car can carry, on the scheduling
+     * thread of the whole fleet.
+     */
+    void planRoute(PersonRequest request) {
+        final long releases = deferredStore.getReleases();
+        PersonRequest route = routePlanner.plan(request);
+        if (route == null) {
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.noRoute, request.getPersonId());
             }
-            if (allReset) {
-                Debugger.dbgPrintln("@Scheduler{}: req jumped, all resetting");
-                bufferThread.addRequest(request);
-            } else if (splitRequest) {
-                // CHECKME if no elevator contains the range:
-                // TODO pick a floor and split the request
-                int transFloor = 0;
-                synchronized (elevators) {
-                    for (Elevator elevator : elevators.values()) {
-                        if (elevator.getState() != Elevator.State.RESETTING) {
-                            transFloor = elevator.getTransFloor();
-                        }
-                    }
-                }
-                Debugger.dbgPrintln(
-                        "@Thread{ServerThread}: picked trans_flr" + transFloor, "server"
-                );
-                PersonRequest nextRequest = new PersonRequest(
-                        transFloor, request.getToFloor(), request.getPersonId());
-                requestQueue.addRequest(new ParaRequest(
-                        request.getFromFloor(), transFloor, request.getPersonId(), nextRequest));
-            } else if (allBackwards) {
-                Debugger.dbgPrintln("@Scheduler{}: req jumped", "scheduler");
-                bufferThread.addRequest(request);
+            if (!deferredStore.deferUnrouted(request, releases)) {
+                requestQueue.requeue(request);  // a car changed meanwhile, try again
+            }
+        } else {
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.routed, request.getPersonId(), route.getToFloor());
+            }
+            deferredStore.settle(request);
+            requestQueue.requeue(route);
+        }
+    }
+
+    /**
+     * Called by a zone's dispatcher with a request none of its cars serves:
+     * the zone's ranges were out of date, the request is routed again.
+     */
+    void handOff(PersonRequest request, Zone zone) {
+        zone.refreshRanges(registry);
+        handOffs++;
+        requestQueue.requeue(request);
+    }
+
+    public void reportStats() {
+        if (Boolean.getBoolean("elevator.dispatchStats")) {
+            if (zoneNum == 1) {
+                System.err.println(dispatchers[0].getDispatchStats());
+                System.err.println(deferredStore);
             } else {
-                synchronized (elevators) {
-                    // elevator found, start scheduling
-                    // EID starts at 1, so -1
-                    Elevator elevator = elevators.get(selectedElevatorId);
-                    Debugger.timePrintln(
-                            String.format(
-                                    "RECEIVE-%d-%s", request.getPersonId(), selectedElevatorId)
-                    );
-                    // This thread ensures that once a new request is acquired from the request
-                    // queue, it's immediately written to the scheduled elevator's fr_table, so
-                    // that an elevator can read its scheduled requests in real time.
-                    elevator.addRequest(request);  // write request in elevator's fr_table
+                for (Dispatcher dispatcher : dispatchers) {
+                    System.err.println("zone " + dispatcher.getZone().getId() + ": "
+                            + dispatcher.getDispatchStats() + " " + dispatcher.getDeferredStore());
                 }
+                System.err.println(deferredStore);
+                System.err.println("router routed=" + routed + " handoffs=" + handOffs
+                        + " cross_zone_routes=" + crossZoneRoutes);
             }
-            // End of PersonRequest handling
-        } else if (inputRequest instanceof ResetRequest) {
-            String eid;
-            if (inputRequest instanceof NormalResetRequest) {
-                eid = Integer.toString(((NormalResetRequest) inputRequest).getElevatorId());
-            } else {
-                eid = Integer.toString(((DoubleCarResetRequest) inputRequest).getElevatorId());
+            System.err.println("elevator wakeups=" + Elevator.getWakeups()
+                    + " server empty wakeups=" + emptyWakeups);
+            System.err.println(TransferToken.report());
+        }
+    }
+
+    public boolean isEnd() {
+        return end;
+    }
+
+    /**
+     * Called by an elevator changing its direction, or going idle, once the
+     * change is published: the deferred requests it can pick up now are sent
+     * back to the request queue, or to its zone's.
+     * @param dirFlag   where the elevator is going next: 1, -1, or 0 if idle
+     */
+    public void noteElevatorDirectionChange(Elevator elevator, int dirFlag) {
+        ArrayList<PersonRequest> released = deferredStore.release(elevator.getFloor(),
+                dirFlag, elevator.getMinFloor(), elevator.getMaxFloor());
+        if (!released.isEmpty()) {
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.released, Trace.eid(elevator.getEid()), released.size());
             }
-            synchronized (elevators) {
-                Debugger.dbgPrintln("@Scheduler{}: rst_req", "scheduler");
-                Elevator elevator = elevators.get(eid);
-                elevator.addRequest(inputRequest);
+            requestQueue.requeue(released);
+        }
+        if (zoneNum > 1) {
+            dispatchers[zoneOfIndex[elevator.getIndex()].getId()]
+                    .noteDirectionChange(elevator, dirFlag);
+        }
+    }
+
+    /**
+     * Called when persons given to the elevator leave it: out at a floor, or
+     * given back by a reset.
+     */
+    public void noteLeaving(Elevator elevator, int num) {
+        zoneOfIndex[elevator.getIndex()].release(num);
+    }
+
+    /**
+     * Called by a double-car reset once both cars have their new ranges. The
+     * deferred requests were kept for the ranges before, which no car may
+     * cover any more: all of them are scheduled again, to be split or routed
+     * if need be.
+     */
+    public void noteRangeChange() {
+        routePlanner.noteRangeChange();
+        for (Zone zone : zones) {
+            zone.refreshRanges(registry);
+        }
+        releaseDeferred();
+    }
+
+    /**
+     * Called on the OUT of a person at its destination, or on a RESET_END.
+     */
+    public void noteRequestDone() {
+        requestQueue.finish();
+    }
+
+    /**
+     * Give a reset request to the car of its shaft.
+     */
+    void scheduleReset(ResetRequest inputRequest) {
+        String eid;
+        if (inputRequest instanceof NormalResetRequest) {
+            eid = Integer.toString(((NormalResetRequest) inputRequest).getElevatorId());
+        } else {
+            eid = Integer.toString(((DoubleCarResetRequest) inputRequest).getElevatorId());
+        }
+        synchronized (elevators) {
+            if (Trace.on(Trace.scheduler)) {
+                Trace.event(Trace.resetRequest, Integer.parseInt(eid));
             }
+            Elevator elevator = elevators.get(eid);
+            if (elevator == null) {
+                // a double-car shaft from the building config takes no resets
+                if (Trace.on(Trace.scheduler)) {
+                    Trace.event(Trace.resetDropped, Integer.parseInt(eid));
+                }
+                noteRequestDone();
+                return;
+            }
+            elevator.addRequest(inputRequest);
         }
     }
 
     public void addElevator(String eid, Elevator elevator, ElevatorThread elevatorThread) {
+        addElevator(eid, elevator);
+        synchronized (elevatorThreads) { elevatorThreads.put(eid, elevatorThread); }
+    }
+
+    public void addElevator(String eid, Elevator elevator) {
         synchronized (elevators) {
             elevators.put(eid, elevator);
-            elevators.put(eid.charAt(0) + "-A", elevators.get(eid.substring(0,1)));
-            elevators.remove(eid.substring(0,1));
+            String shaft = BuildingConfig.shaftOf(eid);
+            elevators.put(shaft + "-A", elevators.get(shaft));
+            elevators.remove(shaft);
         }
-        synchronized (elevatorThreads) { elevatorThreads.put(eid, elevatorThread); }
+        register(elevator);
     }
 
-    public void addRequests(HashSet<PersonRequest> requests) {
-        for (PersonRequest request : requests) {
-            this.requestQueue.addRequest(request);
+    /**
+     * A copy of the initial elevators, for an engine driving them without
+     * starting this server's threads.
+     */
+    public HashMap<String, Elevator> getElevators() {
+        synchronized (elevators) {
+            return new HashMap<>(elevators);
+        }
+    }
+
+    /**
+     * Schedule everything in the request queue on the calling thread, for the
+     * simulation engine which never starts this thread, until no request is
+     * left: the legs of a planned route and the requests handed back come
+     * back to the queue while it's drained. With zones, the requests are
+     * routed and then each zone's are dispatched in zone order.
+     * @param now   the virtual time, in ms
+     * @return      when the first batch still collecting is due(batch mode),
+     *              or -1 if there's none
+     */
+    public long dispatchPending(long now) {
+        ArrayList<Request> pending = new ArrayList<>();
+        requestQueue.drainTo(pending);
+        long due;
+        if (zoneNum == 1) {
+            do {
+                due = dispatchers[0].dispatchAll(pending, now);
+                pending.clear();
+                requestQueue.drainTo(pending);
+            } while (!pending.isEmpty());
+            return due;
+        }
+        do {
+            for (Request request : pending) {
+                route(request);
+            }
+            due = -1;
+            for (int i = 0; i < zoneNum; i++) {
+                ArrayList<Request> zonePending = new ArrayList<>();
+                zoneQueues[i].drainTo(zonePending);
+                final long zoneDue = dispatchers[i].dispatchAll(zonePending, now);
+                if (zoneDue >= 0 && (due < 0 || zoneDue < due)) {
+                    due = zoneDue;
+                }
+            }
+            pending.clear();
+            requestQueue.drainTo(pending);
+        } while (!pending.isEmpty());
+        return due;
+    }
+
+    /**
+     * Move all deferred requests back to the request queues at once.
+     * @return false if there was nothing deferred
+     */
+    public boolean releaseDeferred() {
+        ArrayList<PersonRequest> released = deferredStore.releaseAll();
+        requestQueue.requeue(released);
+        boolean any = !released.isEmpty();
+        if (zoneNum > 1) {
+            for (Dispatcher dispatcher : dispatchers) {
+                any |= dispatcher.releaseDeferred();
+            }
         }
+        return any;
+    }
+
+    public void addRequests(HashSet<PersonRequest> requests) {
+        this.requestQueue.requeue(requests);
+    }
+
+    /**
+     * Take back the persons given to the elevator, unloaded or cancelled by a
+     * reset, to be dispatched again.
+     */
+    public void giveBack(Elevator elevator, HashSet<PersonRequest> requests) {
+        noteLeaving(elevator, requests.size());
+        addRequests(requests);
     }
 }
@@ -0,0 +1,187 @@
+import com.oocourse.elevator3.Request;
+import tools.Debugger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+// NOT thread safe: everything runs on the calling thread
+
+/**
+ * A discrete-event engine running the elevator system in virtual time.
+ * <p>
+ *     Instead of one thread per elevator sleeping in wall-clock time, the
+ *     engine keeps a virtual clock and a priority queue of timed events. An
+ *     event either brings in the next input request at its time stamp, or
+ *     lets an {@link ElevatorAgent} go on with its motion. After each event the
+ *     server schedules whatever requests are pending, once every event of the
+ *     instant is in, and idle elevators which got new commands are woken up.
+ * </p>
+ * <p>
+ *     The same ServerThread scheduling, Elevator, CommandList and
+ *     FloorRequestTable logic is driven, and the output has the usual format,
+ *     stamped with the virtual time. Input is a "[time]request" trace, read
+ *     lazily.
+ * </p>
+ */
+public class SimulationEngine {
+    private static class Event implements Comparable<Event> {
+        private final long time;
+        private final long seq;  // keeps events of the same time in FIFO order
+        private final Runnable action;
+
+        Event(long time, long seq, Runnable action) {
+            this.time = time;
+            this.seq = seq;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            return time != o.time ? Long.compare(time, o.time) : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final InputStream input;
+    private final RequestParser parser = new RequestParser(null);
+    private final RequestQueue requestQueue = new RequestQueue();
+    private final ServerThread server = new ServerThread(requestQueue);
+    private final ArrayList<ElevatorAgent> agents = new ArrayList<>();
+    private long now = 0;  // virtual time, in ms
+    private long seq = 0;
+    private long batchDue = -1;  // the time of the last batch event scheduled
+    private byte[] line = new byte[64];
+
+    public SimulationEngine(InputStream input) {
+        this.input = input;
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public void schedule(long delay, Runnable action) {
+        events.add(new Event(now + delay, seq++, action));
+    }
+
+    public void addAgent(ElevatorAgent agent) {
+        agents.add(agent);
+        agent.wake();
+    }
+
+    /**
+     * Run the trace to the end.
+     * @throws IllegalStateException if a request taken in is never finished:
+     *         the output is then incomplete
+     */
+    public void run() throws IOException {
+        Debugger.useVirtualClock(this::now);
+        Metrics.useVirtualClock(this::now);
+        HashMap<String, Elevator> elevators = server.getElevators();
+        String[] eids = elevators.keySet().toArray(new String[0]);
+        Arrays.sort(eids);
+        HashMap<String, ElevatorAgent> byEid = new HashMap<>();
+        for (String eid : eids) {
+            byEid.put(eid, new ElevatorAgent(this, server, elevators.get(eid), eid));
+        }
+        // the double-car shafts of the building config
+        for (String eid : eids) {
+            if (eid.endsWith("-A")) {
+                ElevatorAgent upper = byEid.get(BuildingConfig.shaftOf(eid) + "-B");
+                byEid.get(eid).pairWith(upper, new TransferToken());
+            }
+        }
+        for (String eid : eids) {
+            addAgent(byEid.get(eid));
+        }
+        readNextRequest();
+        Event event;
+        while ((event = events.poll()) != null) {
+            assert event.time >= now;
+            now = event.time;
+            event.action.run();
+            Event next = events.peek();
+            if (next != null && next.time == now) {
+                continue;  // dispatch once every event of this instant is in
+            }
+            final long due = server.dispatchPending(now);
+            if (due >= 0 && due != batchDue) {
+                // a batch is collecting: come back when its window is over
+                batchDue = due;
+                events.add(new Event(due, seq++, () -> { }));
+            }
+            for (ElevatorAgent agent : agents) {
+                agent.wake();
+            }
+        }
+        requestQueue.setEnd(true);
+        server.reportStats();
+        if (requestQueue.getInFlight() != 0) {
+            throw new IllegalStateException("SimulationEngine: " + requestQueue.getInFlight()
+                    + " requests left unserved");
+        }
+    }
+
+    /**
+     * Read the next trace line and schedule its request at its time stamp.
+     */
+    private void readNextRequest() throws IOException {
+        int c = input.read();
+        while (c == '\r' || c == '\n') {
+            c = input.read();
+        }
+        if (c == -1) {
+            return;
+        }
+        int length = 0;
+        while (c != '\n' && c != -1) {
+            if (length == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[length++] = (byte) c;
+            c = input.read();
+        }
+        final long time = Math.max(parseTime(line, length), now);
+        final int lineLength = length;
+        events.add(new Event(time, seq++, () -> {
+            Request request = parser.parseRequest(line, 0, lineLength);
+            if (request != null) {
+                requestQueue.addRequest(request);
+            }
+            try {
+                readNextRequest();
+            } catch (IOException e) {
+                System.out.println("SimulationEngine.readNextRequest(): IOException caught");
+            }
+        }));
+    }
+
+    /**
+     * @return the "[seconds]" time stamp of a line in ms, or the current time if absent
+     */
+    private long parseTime(byte[] bytes, int length) {
+        if (length == 0 || bytes[0] != '[') {
+            return now;
+        }
+        long millis = 0;
+        long scale = 0;  // 0 before the decimal point
+        for (int i = 1; i < length && bytes[i] != ']'; i++) {
+            if (bytes[i] == '.') {
+                scale = 1;
+            } else if (scale == 0) {
+                millis = millis * 10 + (bytes[i] - '0');
+            } else if (scale < 1000) {
+                scale *= 10;
+                millis = millis * 10 + (bytes[i] - '0');
+            }
+        }
+        for (scale = Math.max(scale, 1); scale < 1000; scale *= 10) {
+            millis *= 10;
+        }
+        return millis;
+    }
+}
@@ -1,94 +1,113 @@
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Objects;
-import java.util.Queue;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 
 public class TestMain {
     public static void main(String[] args) throws Exception {
-        Scanner scanner = new Scanner(System.in);
-        ArrayList<String> lines = new ArrayList<>();
-        while (scanner.hasNextLine()) {
-            lines.add(scanner.nextLine());
-        }
-        System.setIn(new TimeInputStream(lines));
+        System.setIn(new TimeInputStream(new BufferedInputStream(System.in)));
         Main.main(args);
     }
 
-    private static class Pair<K, V> {
-        private final K first;
-        private final V second;
-
-        Pair(K first, V second) {
-            this.first = first;
-            this.second = second;
-        }
-
-        public K getFirst() {
-            return first;
-        }
-
-        public V getSecond() {
-            return second;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) { return true; }
-            if (obj == null || getClass() != obj.getClass()) { return false; }
-            Pair<?, ?> pair = (Pair<?, ?>) obj;
-            return Objects.equals(first, pair.first) && Objects.equals(second, pair.second);
-        }
+    /**
+     * Replays a "[time]content" trace, serving each content line at its time.
+     * <p>
+     *     The trace is read lazily, one line at a time, into a reusable byte
+     *     buffer, so memory stays constant whatever the trace size. A line is
+     *     released at its absolute deadline, measured with System.nanoTime()
+     *     from the creation of the stream, so the waiting errors don't add up.
+     * </p>
+     */
+    private static class TimeInputStream extends InputStream {
+        // below this rest time, spin instead of parking to release on time
+        private static final long spinNanos = 50_000;
+        private final InputStream source;
+        private final long initTime;
+        private byte[] line = new byte[64];  // the content of the current line + '\n'
+        private int lineLength = 0;
+        private int linePos = 0;
+        private boolean eof = false;
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(first, second);
+        TimeInputStream(InputStream source) {
+            this.source = source;
+            this.initTime = System.nanoTime();
         }
 
-        @Override
-        public String toString() {
-            return "<" + first + ", " + second + ">";
+        /**
+         * Read the next trace line into the buffer and wait until its time.
+         * @return false if the trace has ended
+         */
+        private boolean nextLine() throws IOException {
+            lineLength = 0;
+            linePos = 0;
+            int c = source.read();
+            while (c == '\r' || c == '\n') {  // skip empty lines
+                c = source.read();
+            }
+            if (c == -1) {
+                eof = true;
+                return false;
+            }
+            if (c != '[') {
+                throw new RuntimeException("Invalid input: " + (char) c + "...");
+            }
+            // parse the time stamp(in seconds) as an exact number of nanoseconds
+            long nanos = 0;
+            long scale = 0;  // 0 before the decimal point
+            while ((c = source.read()) != ']') {
+                if (c >= '0' && c <= '9') {
+                    if (scale == 0) {
+                        nanos = nanos * 10 + (c - '0');
+                    } else if (scale < 1_000_000_000L) {
+                        scale *= 10;
+                        nanos += (c - '0') * (1_000_000_000L / scale);
+                    }
+                } else if (c == '.' && scale == 0) {
+                    nanos *= 1_000_000_000L;
+                    scale = 1;
+                } else {
+                    throw new RuntimeException("Invalid input: bad time stamp");
+                }
+            }
+            if (scale == 0) {
+                nanos *= 1_000_000_000L;
+            }
+            // read the content
+            while ((c = source.read()) != '\n' && c != -1) {
+                if (c == '\r') {
+                    continue;
+                }
+                if (lineLength == line.length - 1) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[lineLength++] = (byte) c;
+            }
+            line[lineLength++] = '\n';
+            waitUntil(initTime + nanos);
+            return true;
         }
-    }
-
-    private static class TimeInputStream extends InputStream {
-        private static final Pattern pattern = Pattern.compile("\\[(.*?)](.*)");
-        private final Queue<Pair<Long, String>> data = new ArrayDeque<>();
-        private final Queue<Integer> cache = new ArrayDeque<>();
 
-        TimeInputStream(ArrayList<String> lines) {
-            final long initTime = System.currentTimeMillis();
-            for (String line : lines) {
-                Matcher matcher = pattern.matcher(line);
-                if (matcher.find()) {
-                    long time = (long) (Double.parseDouble(matcher.group(1)) * 1000 + 0.5);
-                    String content = matcher.group(2);
-                    data.add(new Pair<>(initTime + time, content));
+        private static void waitUntil(long deadline) throws IOException {
+            long rest;
+            while ((rest = deadline - System.nanoTime()) > 0) {
+                if (rest > spinNanos) {
+                    LockSupport.parkNanos(rest - spinNanos);
                 } else {
-                    throw new RuntimeException("Invalid input: " + line);
+                    Thread.onSpinWait();
+                }
+                if (Thread.interrupted()) {
+                    throw new IOException(new InterruptedException());
                 }
             }
         }
 
         @Override
         public int read() throws IOException {
-            if (cache.isEmpty()) {
-                if (data.isEmpty()) { return -1; }
-                try {
-                    long time = data.peek().getFirst() - System.currentTimeMillis();
-                    if (time > 0) { Thread.sleep(time); }
-                    String content = Objects.requireNonNull(data.poll()).getSecond();
-                    content.chars().forEach(cache::add);
-                    cache.add(10);
-                } catch (InterruptedException e) {
-                    throw new IOException(e);
-                }
+            if (linePos == lineLength && (eof || !nextLine())) {
+                return -1;
             }
-            return Objects.requireNonNull(cache.poll());
+            return line[linePos++];
         }
 
         @Override
@@ -100,19 +119,14 @@ public class TestMain {
             } else if (len == 0) {
                 return 0;
             }
-
-            int c = read();
-            if (c == -1) { return -1; }
-            b[off] = (byte) c;
-
-            int i = 1;
-            for (; i < len; i++) {
-                if (cache.isEmpty()) { break; }
-                c = read();
-                if (c == -1) { break; }
-                b[off + i] = (byte) c;
+            // serve the rest of the current line at most, never wait past it
+            if (linePos == lineLength && (eof || !nextLine())) {
+                return -1;
             }
-            return i;
+            int num = Math.min(len, lineLength - linePos);
+            System.arraycopy(line, linePos, b, off, num);
+            linePos += num;
+            return num;
         }
     }
-}
\ No newline at end of file
+}
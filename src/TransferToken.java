@@ -0,0 +1,112 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// thread safe, lock free: the two cars of a double-car shaft
+
+/**
+ * The reservation of a double-car shaft's transfer floor.
+ * <p>
+ *     A car acquires the token before moving onto the transfer floor and
+ *     releases it after moving off, so the two cars are never there together.
+ *     The cars are the sides 0(lower, A) and 1(upper, B). Both the owner and
+ *     the side waiting next are single atomic ints; a free token with a side
+ *     waiting goes to that side only, so the cars take turns in the order they
+ *     asked(FIFO), and a car leaving can't take the floor again at once.
+ * </p>
+ * <p>
+ *     A waiting thread parks, and is unparked by the other side when it
+ *     releases the token or takes its turn. The time cars wait for the token
+ *     is summed up for the stats report.
+ * </p>
+ */
+public class TransferToken {
+    private static final int none = -1;
+    private static final LongAdder waits = new LongAdder();
+    private static final LongAdder waitMillis = new LongAdder();
+    private static final LongAccumulator maxWaitMillis = new LongAccumulator(Math::max, 0);
+
+    private final AtomicInteger owner = new AtomicInteger(none);
+    private final AtomicInteger next = new AtomicInteger(none);  // the side waiting
+    private final AtomicReferenceArray<Thread> threads = new AtomicReferenceArray<>(2);
+
+    /**
+     * Take the token if it's free and not promised to the other side; if not,
+     * queue up to be next. Never blocks.
+     * @return true if the side holds the token
+     */
+    public boolean tryAcquire(int side) {
+        final int current = owner.get();
+        if (current == side) {
+            return true;
+        }
+        if (current == none) {
+            final int waiting = next.get();
+            if ((waiting == none || waiting == side) && owner.compareAndSet(none, side)) {
+                if (next.compareAndSet(side, none)) {
+                    unparkOther(side);  // the other side may queue up now
+                }
+                return true;
+            }
+        }
+        next.compareAndSet(none, side);
+        return false;
+    }
+
+    /**
+     * Wait for the token. The side keeps its turn as next all through the
+     * wait, and gives it up only if interrupted.
+     * @throws InterruptedException if interrupted in waiting: the side neither
+     *                              holds the token nor waits for it any more
+     */
+    public void acquire(int side) throws InterruptedException {
+        threads.set(side, Thread.currentThread());
+        while (!tryAcquire(side)) {
+            if (Thread.interrupted()) {
+                next.compareAndSet(side, none);
+                unparkOther(side);  // the other side may queue up now
+                throw new InterruptedException();
+            }
+            LockSupport.park(this);  // unparked by the other side, or by an interrupt
+        }
+    }
+
+    /**
+     * Give the token back, called by the side holding it.
+     */
+    public void release(int side) {
+        if (owner.compareAndSet(side, none)) {
+            unparkOther(side);
+        }
+    }
+
+    public boolean isHeldBy(int side) {
+        return owner.get() == side;
+    }
+
+    private void unparkOther(int side) {
+        final Thread thread = threads.get(1 - side);
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Count a wait of a car for the token.
+     */
+    public static void recordWait(long millis) {
+        waits.increment();
+        waitMillis.add(millis);
+        maxWaitMillis.accumulate(millis);
+    }
+
+    /**
+     * @return the waits at transfer floors so far, for the stats report
+     */
+    public static String report() {
+        return String.format("transfer floor waits=%d total=%dms max=%dms",
+                waits.sum(), waitMillis.sum(), maxWaitMillis.get());
+    }
+}
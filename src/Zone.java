@@ -0,0 +1,88 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// thread safe: cars are added by the threads doing double-car resets, read by any
+
+/**
+ * A bank of shafts with a scheduler of its own.
+ * <p>
+ *     A zone holds the registry indices of its cars, the floor ranges they
+ *     serve and a count of the persons committed to them: given to one of the
+ *     cars and not yet out of it. The cars and ranges are replaced as a whole
+ *     on the rare changes(double-car resets), so readers take them without
+ *     locking.
+ * </p>
+ */
+public class Zone {
+    private final int id;
+    private volatile int[] cars = new int[0];
+    // the distinct {min, max} ranges of the cars
+    private volatile int[][] ranges = new int[0][];
+    private final AtomicInteger committed = new AtomicInteger();
+
+    Zone(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public synchronized void addCar(int index) {
+        int[] grown = Arrays.copyOf(cars, cars.length + 1);
+        grown[cars.length] = index;
+        cars = grown;
+    }
+
+    /**
+     * @return the registry indices of the cars; not to be modified
+     */
+    public int[] getCars() {
+        return cars;
+    }
+
+    /**
+     * Read the ranges of the cars again, after a car's range changed.
+     */
+    public void refreshRanges(FleetRegistry registry) {
+        FleetRegistry.CarView view = new FleetRegistry.CarView();
+        int[][] found = new int[0][];
+        for (int index : cars) {
+            registry.read(index, view);
+            boolean known = false;
+            for (int[] range : found) {
+                known |= range[0] == view.getMinFloor() && range[1] == view.getMaxFloor();
+            }
+            if (!known) {
+                found = Arrays.copyOf(found, found.length + 1);
+                found[found.length - 1] = new int[]{view.getMinFloor(), view.getMaxFloor()};
+            }
+        }
+        ranges = found;
+    }
+
+    /**
+     * @return true if some car of the zone serves both floors
+     */
+    public boolean covers(int fromFloor, int toFloor) {
+        for (int[] range : ranges) {
+            if (fromFloor >= range[0] && fromFloor <= range[1]
+                    && toFloor >= range[0] && toFloor <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void commit() {
+        committed.incrementAndGet();
+    }
+
+    public void release(int num) {
+        committed.addAndGet(-num);
+    }
+
+    public int getCommitted() {
+        return committed.get();
+    }
+}
@@ -0,0 +1,41 @@
+import com.oocourse.elevator3.Request;
+import tools.Trace;
+
+// thread safe: the queue takes requests from any thread, only this thread dispatches
+
+/**
+ * The scheduler thread of a zone, when the fleet is split into zones.
+ * <p>
+ *     The server routes each person request to a zone's queue; this thread
+ *     takes them in order and lets the zone's {@link Dispatcher} give them to
+ *     the zone's cars. It ends once the server has ended its queue, which
+ *     the server does only when every request taken in is finished: up to
+ *     then a handoff or a release may still requeue into this zone, so the
+ *     end of the input alone doesn't end it.
+ * </p>
+ */
+public class ZoneScheduler extends Thread {
+    private final RequestQueue queue;
+    private final Dispatcher dispatcher;
+
+    ZoneScheduler(RequestQueue queue, Dispatcher dispatcher) {
+        this.queue = queue;
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            if (queue.isEnd() && queue.isEmpty()) {
+                if (Trace.on(Trace.server)) {
+                    Trace.event(Trace.zoneExit, dispatcher.getZone().getId());
+                }
+                return;
+            }
+            Request request = queue.getRequest();
+            if (request != null) {
+                dispatcher.dispatch(request);
+            }
+        }
+    }
+}
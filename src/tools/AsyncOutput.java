@@ -0,0 +1,250 @@
+package tools;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// thread safe: any number of producers, one writer thread
+
+/**
+ * The output lines, published as compact records into a ring buffer and
+ * written by a single writer thread.
+ * <p>
+ *     A record is the event kind, its time stamp, up to two ints and a
+ *     reference(the elevator id, or an object to print). Producers only take
+ *     the slot and the time stamp under one lock, so records are in time
+ *     stamp order; formatting and writing happen on the writer thread, in
+ *     batches, with one flush per batch. A producer finding the ring full
+ *     waits for the writer without the lock.
+ * </p>
+ * <p>
+ *     Every line of the run has to come through here, RESET_ACCEPT
+ *     included(through {@link Output#println}), so ElevatorInput, which
+ *     prints it through TimableOutput itself, isn't used with this output.
+ * </p>
+ */
+public class AsyncOutput {
+    public static final int arrive = 0;
+    public static final int open = 1;
+    public static final int close = 2;
+    public static final int in = 3;
+    public static final int out = 4;
+    public static final int receive = 5;
+    public static final int resetBegin = 6;
+    public static final int resetEnd = 7;
+    private static final int object = 8;  // [time]toString()
+    private static final byte[][] prefixes = {
+        bytes("ARRIVE-"), bytes("OPEN-"), bytes("CLOSE-"), bytes("IN-"), bytes("OUT-"),
+        bytes("RECEIVE-"), bytes("RESET_BEGIN-"), bytes("RESET_END-")
+    };
+    private static final int capacity = 1 << 12;
+    private static final int mask = capacity - 1;
+
+    private final long[] times = new long[capacity];
+    private final int[] kinds = new int[capacity];
+    private final int[] firsts = new int[capacity];
+    private final int[] seconds = new int[capacity];
+    private final Object[] refs = new Object[capacity];
+    private final Object lock = new Object();  // taken to fill a slot
+    private long head = 0;  // the next slot to fill, guarded by lock
+    private volatile long published = 0;
+    private volatile long consumed = 0;
+
+    private final PrintStream target;
+    private final long startTimestamp;
+    private final Thread writer;
+    private volatile boolean writerParked = false;
+    private volatile boolean closed = false;
+    private byte[] buffer = new byte[1 << 14];  // written by the drainer only
+    private int length = 0;
+
+    /**
+     * Start the time stamps now; the writer thread writes to the current
+     * System.out.
+     */
+    public AsyncOutput() {
+        target = System.out;
+        startTimestamp = System.currentTimeMillis();
+        writer = new Thread(this::writeLoop, "output-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public void publish(int kind, int first, int second, Object ref) {
+        while (!tryPublish(kind, first, second, ref)) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, 50_000);
+        }
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Take a slot and the time stamp, in the order of the lines.
+     * @return false if the ring is full
+     */
+    private boolean tryPublish(int kind, int first, int second, Object ref) {
+        synchronized (lock) {
+            if (head - consumed >= capacity) {
+                return false;
+            }
+            final int slot = (int) (head & mask);
+            times[slot] = System.currentTimeMillis();
+            kinds[slot] = kind;
+            firsts[slot] = first;
+            seconds[slot] = second;
+            refs[slot] = ref;
+            published = ++head;
+            return true;
+        }
+    }
+
+    public void println(Object o) {
+        publish(object, 0, 0, o);
+    }
+
+    private void writeLoop() {
+        while (!closed) {
+            if (published == consumed) {
+                writerParked = true;
+                if (published == consumed && !closed) {  // a producer may have missed the flag
+                    LockSupport.park(this);
+                }
+                writerParked = false;
+                continue;
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Format and write every record published so far, in one batch.
+     */
+    private synchronized void drain() {
+        final long end = published;
+        for (long seq = consumed; seq < end; seq++) {
+            final int slot = (int) (seq & mask);
+            format(slot);
+            refs[slot] = null;
+        }
+        if (length > 0) {
+            target.write(buffer, 0, length);
+            target.flush();
+            length = 0;
+        }
+        consumed = end;
+    }
+
+    /**
+     * Stop the writer after everything published is written.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+    }
+
+    private void format(int slot) {
+        final int kind = kinds[slot];
+        appendTime(times[slot] - startTimestamp);
+        switch (kind) {
+            case object:
+                append(String.valueOf(refs[slot]));
+                break;
+            case in:
+            case out:  // IN-person-floor-eid
+                append(prefixes[kind]);
+                appendInt(firsts[slot]);
+                appendByte('-');
+                appendInt(seconds[slot]);
+                appendByte('-');
+                append((String) refs[slot]);
+                break;
+            case resetBegin:
+            case resetEnd:
+                append(prefixes[kind]);
+                append((String) refs[slot]);
+                break;
+            default:  // ARRIVE/OPEN/CLOSE-floor-eid, RECEIVE-person-eid
+                append(prefixes[kind]);
+                appendInt(firsts[slot]);
+                appendByte('-');
+                append((String) refs[slot]);
+        }
+        appendByte('\n');
+    }
+
+    /**
+     * "[%9.4f]" of the time in seconds, exact for whole milliseconds.
+     */
+    private void appendTime(long millis) {
+        final long whole = millis / 1000;
+        final long fraction = millis % 1000;
+        int digits = 1;
+        for (long rest = whole / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        appendByte('[');
+        for (int pad = 9 - (digits + 5); pad > 0; pad--) {
+            appendByte(' ');
+        }
+        appendInt(whole);
+        appendByte('.');
+        appendByte('0' + fraction / 100);
+        appendByte('0' + fraction / 10 % 10);
+        appendByte('0' + fraction % 10);
+        appendByte('0');
+        appendByte(']');
+    }
+
+    private void appendInt(long value) {
+        if (value < 0) {
+            appendByte('-');
+            value = -value;
+        }
+        ensure(20);
+        final int begin = length;
+        do {
+            buffer[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = begin, j = length - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+    }
+
+    private void append(String s) {
+        append(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void appendByte(long b) {
+        ensure(1);
+        buffer[length++] = (byte) b;
+    }
+
+    private void ensure(int more) {
+        if (length + more > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+        }
+    }
+}
@@ -2,52 +2,29 @@ package tools;
 
 import com.oocourse.elevator3.TimableOutput;
 
-import java.util.HashMap;
+import java.util.function.LongSupplier;
 
+/**
+ * The time-stamped output lines, on the wall clock or a virtual one; debug
+ * traces are recorded by {@link Trace}.
+ */
 public class Debugger {
-    private static final boolean debugOut = false;
-    private static final HashMap<String, Boolean> infoSwitch = new HashMap<>();
-    private static final String eid = "";
-
-    static {
-        infoSwitch.put("scheduler", false);
-        infoSwitch.put("elevator", false);
-        infoSwitch.put("elevator thread", true);
-        infoSwitch.put("read requests", false);
-        infoSwitch.put("server", true);
-        infoSwitch.put("reset", false);
-        infoSwitch.put("commandlist", true);
-        infoSwitch.put("command", true);
-        infoSwitch.put("buffer thread", false);
-    }
-
     private static final boolean output = true;
+    // if set, time stamps are taken from this clock(in ms) instead of the wall clock
+    private static LongSupplier virtualClock = null;
 
-    public static void dbgPrintln(Object o) {
-        if (debugOut) {
-            System.out.println(o);
-        }
-    }
-
-    public static void dbgPrintln(Object o, String type) {
-        if (infoSwitch.get(type)) {
-            dbgPrintln(o);
-        }
-    }
-
-    public static void dbgPrintln(Object o, String type, String selId) {
-        if (!eid.isEmpty()) {
-            if (eid.equals(selId)) {
-                dbgPrintln(o, type);
-            }
-        } else {
-            dbgPrintln(o, type);
-        }
+    public static void useVirtualClock(LongSupplier clock) {
+        virtualClock = clock;
     }
 
     public static void timePrintln(Object o) {
         if (output) {
-            TimableOutput.println(o);
+            if (virtualClock != null) {
+                System.out.println(String.format(
+                        "[%9.4f]%s", virtualClock.getAsLong() / 1000.0, o));
+            } else {
+                TimableOutput.println(o);
+            }
         }
     }
 }
@@ -0,0 +1,127 @@
+package tools;
+
+import com.oocourse.elevator3.TimableOutput;
+
+// thread safe
+
+/**
+ * The output lines of the simulation, one method per kind of line.
+ * <p>
+ *     With elevator.output=sync(the default) each line is formatted and
+ *     printed by the calling thread through {@link Debugger#timePrintln}, as
+ *     before. With elevator.output=async the threaded run only records the
+ *     event and its time stamp in an {@link AsyncOutput}, whose writer thread
+ *     prints the same lines in the same order; the input must then be read
+ *     with RequestParser, which prints RESET_ACCEPT through here(see
+ *     {@link #isAsync}). The virtual-time engine always prints synchronously.
+ * </p>
+ */
+public class Output {
+    private static volatile AsyncOutput async = null;
+
+    /**
+     * Start the time stamps of a threaded run, in place of
+     * TimableOutput.initStartTimestamp().
+     */
+    public static void start() {
+        // with async output too: the lines after shutdown() are printed by it
+        TimableOutput.initStartTimestamp();
+        if ("async".equals(System.getProperty("elevator.output", "sync"))) {
+            async = new AsyncOutput();
+        }
+    }
+
+    /**
+     * @return true if the lines are printed by a writer thread: every line
+     *         must then come through this class, none through TimableOutput
+     */
+    public static boolean isAsync() {
+        return async != null;
+    }
+
+    /**
+     * Write out every line recorded so far; the lines after this are printed
+     * synchronously.
+     */
+    public static void shutdown() {
+        AsyncOutput output = async;
+        if (output != null) {
+            async = null;
+            output.close();
+        }
+    }
+
+    public static void arrive(int floor, String eid) {
+        numEvent(AsyncOutput.arrive, "ARRIVE-", floor, eid);
+    }
+
+    public static void open(int floor, String eid) {
+        numEvent(AsyncOutput.open, "OPEN-", floor, eid);
+    }
+
+    public static void close(int floor, String eid) {
+        numEvent(AsyncOutput.close, "CLOSE-", floor, eid);
+    }
+
+    public static void in(int personId, int floor, String eid) {
+        AsyncOutput output = async;
+        if (output != null) {
+            output.publish(AsyncOutput.in, personId, floor, eid);
+        } else {
+            Debugger.timePrintln(String.format("IN-%d-%d-%s", personId, floor, eid));
+        }
+    }
+
+    public static void out(int personId, int floor, String eid) {
+        AsyncOutput output = async;
+        if (output != null) {
+            output.publish(AsyncOutput.out, personId, floor, eid);
+        } else {
+            Debugger.timePrintln(String.format("OUT-%d-%d-%s", personId, floor, eid));
+        }
+    }
+
+    public static void receive(int personId, String eid) {
+        numEvent(AsyncOutput.receive, "RECEIVE-", personId, eid);
+    }
+
+    public static void resetBegin(String eid) {
+        idEvent(AsyncOutput.resetBegin, "RESET_BEGIN-", eid);
+    }
+
+    public static void resetEnd(String shaft) {
+        idEvent(AsyncOutput.resetEnd, "RESET_END-", shaft);
+    }
+
+    /**
+     * Print an object as it is, with a time stamp(e.g. RESET_ACCEPT).
+     */
+    public static void println(Object o) {
+        AsyncOutput output = async;
+        if (output != null) {
+            output.println(o);
+        } else {
+            Debugger.timePrintln(o);
+        }
+    }
+
+    // "PREFIX-num-eid"
+    private static void numEvent(int kind, String prefix, int num, String eid) {
+        AsyncOutput output = async;
+        if (output != null) {
+            output.publish(kind, num, 0, eid);
+        } else {
+            Debugger.timePrintln(String.format("%s%d-%s", prefix, num, eid));
+        }
+    }
+
+    // "PREFIX-eid"
+    private static void idEvent(int kind, String prefix, String eid) {
+        AsyncOutput output = async;
+        if (output != null) {
+            output.publish(kind, 0, 0, eid);
+        } else {
+            Debugger.timePrintln(prefix + eid);
+        }
+    }
+}
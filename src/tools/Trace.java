@@ -0,0 +1,338 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// thread safe
+
+/**
+ * Structured debug tracing: typed events with primitive arguments, recorded
+ * into a preallocated binary ring buffer.
+ * <p>
+ *     The categories to trace are given with elevator.trace, e.g.
+ *     "-Delevator.trace=elevator-thread,scheduler" or "all"; none by default.
+ *     The enabled set is a static final mask, so a call site guarded by
+ *     {@link #on} is folded away by the JIT when its category is off, the
+ *     arguments included:
+ *     <pre>
+ *     if (Trace.on(Trace.scheduler)) {
+ *         Trace.event(Trace.batch, batch.size());
+ *     }
+ *     </pre>
+ *     A record is the nanoseconds since the start, the event id and four
+ *     long arguments. The ring keeps the last elevator.traceSize records
+ *     (65536 by default, rounded up to a power of 2), overwriting the oldest,
+ *     and is dumped to elevator.traceFile("elevator.trace") when the JVM
+ *     exits. Decode a dump, optionally for one elevator id, with:
+ *     <pre>
+ *     java -cp out tools.Trace elevator.trace [eid]
+ *     </pre>
+ *     The records of threads still running at the dump may be torn.
+ * </p>
+ */
+public class Trace {
+    // categories
+    public static final int scheduler = 1;
+    public static final int elevator = 1 << 1;
+    public static final int elevatorThread = 1 << 2;
+    public static final int readRequests = 1 << 3;
+    public static final int server = 1 << 4;
+    public static final int command = 1 << 5;
+    private static final String[] categoryNames = {
+        "scheduler", "elevator", "elevator-thread", "read-requests", "server", "command"
+    };
+
+    // argument kinds, for decoding
+    private static final char kindBool = 'b';
+    private static final char kindEid = 'e';  // an elevator id from eid()
+    private static final char kindDir = 'd';  // Elevator.Direction ordinal
+    private static final char kindState = 's';  // Elevator.State ordinal
+    private static final String[] directionNames = {"UP", "DOWN", "STAY"};
+    private static final String[] stateNames = {"MOVING", "OPENING", "CLOSING", "RESETTING"};
+
+    // events: the id is the index in the tables below
+    public static final int carLoop = 0;
+    public static final int carTryExit = 1;
+    public static final int carExit = 2;
+    public static final int carNullCommand = 3;
+    public static final int carEnter = 4;
+    public static final int carTokenWait = 5;
+    public static final int carNextDirection = 6;
+    public static final int carJump = 7;
+    public static final int carHasEntry = 8;
+    public static final int carStay = 9;
+    public static final int carCommand = 10;
+    public static final int carParaSent = 11;
+    public static final int tableAdd = 12;
+    public static final int serverRunning = 13;
+    public static final int serverExit = 14;
+    public static final int zoneExit = 15;
+    public static final int noRoute = 16;
+    public static final int routed = 17;
+    public static final int released = 18;
+    public static final int resetRequest = 19;
+    public static final int resetDropped = 20;
+    public static final int batch = 21;
+    public static final int priority = 22;
+    public static final int deferAllResetting = 23;
+    public static final int handedOff = 24;
+    public static final int deferBackwards = 25;
+    public static final int inputRunning = 26;
+    public static final int inputExit = 27;
+    // name and argument "name:kind"s of each event
+    private static final String[][] events = {
+        {"CAR_LOOP", "eid:e", "dir:d", "floor:n", "load:n"},
+        {"CAR_TRY_EXIT", "eid:e", "commandEmpty:b", "serverEnd:b"},
+        {"CAR_EXIT", "eid:e"},
+        {"CAR_NULL_COMMAND", "eid:e"},
+        {"CAR_ENTER", "eid:e", "state:s", "dir:d"},
+        {"CAR_TOKEN_WAIT", "eid:e", "floor:n"},
+        {"CAR_NEXT_DIRECTION", "eid:e", "dirFlag:n"},
+        {"CAR_JUMP", "eid:e", "jump:b"},
+        {"CAR_HAS_ENTRY", "eid:e", "floor:n", "dir:d", "found:b"},
+        {"CAR_STAY", "eid:e", "up:b", "down:b"},
+        {"CAR_COMMAND", "eid:e", "reset:b", "destination:n", "waitTime:n"},
+        {"CAR_PARA_SENT", "eid:e", "person:n"},
+        {"TABLE_ADD", "person:n", "fromFloor:n", "toFloor:n"},
+        {"SERVER_RUNNING"},
+        {"SERVER_EXIT"},
+        {"ZONE_EXIT", "zone:n"},
+        {"NO_ROUTE", "person:n"},
+        {"ROUTED", "person:n", "via:n"},
+        {"RELEASED", "eid:e", "count:n"},
+        {"RESET_REQUEST", "shaft:n"},
+        {"RESET_DROPPED", "shaft:n"},
+        {"BATCH", "size:n"},
+        {"PRIORITY", "person:n", "car:n", "priority:n"},
+        {"DEFER_ALL_RESETTING", "person:n"},
+        {"HANDED_OFF", "person:n", "zone:n"},
+        {"DEFER_BACKWARDS", "person:n"},
+        {"INPUT_RUNNING"},
+        {"INPUT_EXIT"},
+    };
+    private static final int magic = 0x454c5452;  // "ELTR"
+    private static final int argNum = 4;
+    private static final int enabled = parseCategories(System.getProperty("elevator.trace", ""));
+    private static final long start = System.nanoTime();
+    private static final int mask;
+    private static final long[] times;
+    private static final int[] ids;
+    private static final long[] args;
+    private static final AtomicLong next = new AtomicLong();
+
+    static {
+        if (enabled != 0) {
+            int size = Integer.highestOneBit(
+                    Math.max(1, Integer.getInteger("elevator.traceSize", 1 << 16)) * 2 - 1);
+            mask = size - 1;
+            times = new long[size];
+            ids = new int[size];
+            args = new long[size * argNum];
+            final String file = System.getProperty("elevator.traceFile", "elevator.trace");
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(file)));
+        } else {
+            mask = 0;
+            times = null;
+            ids = null;
+            args = null;
+        }
+    }
+
+    private static int parseCategories(String value) {
+        int found = 0;
+        for (String name : value.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            } else if (name.equals("all")) {
+                found = -1;
+                continue;
+            }
+            int index = 0;
+            while (index < categoryNames.length && !categoryNames[index].equals(name)) {
+                index++;
+            }
+            if (index == categoryNames.length) {
+                throw new IllegalArgumentException("elevator.trace: no category " + name);
+            }
+            found |= 1 << index;
+        }
+        return found;
+    }
+
+    /**
+     * @return true if the category is traced; guard each event with it
+     */
+    public static boolean on(int category) {
+        return (enabled & category) != 0;
+    }
+
+    public static void event(int event) {
+        event(event, 0, 0, 0, 0);
+    }
+
+    public static void event(int event, long a) {
+        event(event, a, 0, 0, 0);
+    }
+
+    public static void event(int event, long a, long b) {
+        event(event, a, b, 0, 0);
+    }
+
+    public static void event(int event, long a, long b, long c) {
+        event(event, a, b, c, 0);
+    }
+
+    public static void event(int event, long a, long b, long c, long d) {
+        if (enabled == 0) {
+            return;
+        }
+        final int slot = (int) (next.getAndIncrement() & mask);
+        times[slot] = System.nanoTime() - start;
+        ids[slot] = event;
+        final int base = slot * argNum;
+        args[base] = a;
+        args[base + 1] = b;
+        args[base + 2] = c;
+        args[base + 3] = d;
+    }
+
+    /**
+     * @return an elevator id as an event argument: the shaft, and 1 for a
+     *         car "-A", 2 for a car "-B"
+     */
+    public static long eid(String eid) {
+        final int dash = eid.indexOf('-');
+        if (dash < 0) {
+            return (long) Integer.parseInt(eid) << 2;
+        }
+        return (long) Integer.parseInt(eid.substring(0, dash)) << 2
+                | (eid.charAt(dash + 1) == 'A' ? 1 : 2);
+    }
+
+    public static long bool(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    private static String eidName(long value) {
+        final long car = value & 3;
+        return (value >> 2) + (car == 0 ? "" : car == 1 ? "-A" : "-B");
+    }
+
+    /**
+     * Write the records in the ring, oldest first.
+     */
+    static synchronized void dump(String file) {
+        final long end = next.get();
+        final long begin = Math.max(0, end - times.length);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(magic);
+            out.writeInt(argNum);
+            out.writeLong(end - begin);
+            for (long seq = begin; seq < end; seq++) {
+                final int slot = (int) (seq & mask);
+                out.writeLong(times[slot]);
+                out.writeShort(ids[slot]);
+                for (int i = 0; i < argNum; i++) {
+                    out.writeLong(args[slot * argNum + i]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Trace.dump(): " + e.getMessage());
+        }
+    }
+
+    /**
+     * Print a dump as text, one record a line; with an elevator id, only the
+     * records of that elevator.
+     */
+    public static void main(String[] argv) throws IOException {
+        if (argv.length < 1) {
+            System.err.println("usage: java tools.Trace <dump> [eid]");
+            return;
+        }
+        final long selected = argv.length > 1 ? eid(argv[1]) : -1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(argv[0])))) {
+            if (in.readInt() != magic) {
+                throw new IOException(argv[0] + ": not a trace dump");
+            }
+            final int recordArgs = in.readInt();
+            final long count = in.readLong();
+            final long[] values = new long[recordArgs];
+            StringBuilder line = new StringBuilder();
+            for (long i = 0; i < count; i++) {
+                final long time = in.readLong();
+                final int event = in.readShort();
+                for (int j = 0; j < recordArgs; j++) {
+                    values[j] = in.readLong();
+                }
+                if (event < 0 || event >= events.length) {
+                    continue;  // torn
+                }
+                final String[] format = events[event];
+                if (selected >= 0 && !(format.length > 1 && format[1].endsWith(":e")
+                        && values[0] == selected)) {
+                    continue;
+                }
+                line.setLength(0);
+                line.append(String.format("[%12.6f] %-15s %s",
+                        time / 1e9, categoryName(eventCategory(event)), format[0]));
+                for (int j = 1; j < format.length; j++) {
+                    final int colon = format[j].indexOf(':');
+                    line.append(' ').append(format[j], 0, colon).append('=');
+                    appendValue(line, format[j].charAt(colon + 1), values[j - 1]);
+                }
+                System.out.println(line);
+            }
+        } catch (EOFException e) {
+            System.err.println(argv[0] + ": truncated");
+        }
+    }
+
+    private static int eventCategory(int event) {
+        if (event <= carJump) {
+            return elevatorThread;
+        } else if (event == carCommand) {
+            return command;
+        } else if (event <= tableAdd) {
+            return elevator;
+        } else if (event <= zoneExit) {
+            return server;
+        } else if (event <= deferBackwards) {
+            return scheduler;
+        }
+        return readRequests;
+    }
+
+    private static String categoryName(int category) {
+        return categoryNames[Integer.numberOfTrailingZeros(category)];
+    }
+
+    private static void appendValue(StringBuilder line, char kind, long value) {
+        switch (kind) {
+            case kindBool:
+                line.append(value != 0);
+                break;
+            case kindEid:
+                line.append(eidName(value));
+                break;
+            case kindDir:
+                line.append(directionNames[(int) value]);
+                break;
+            case kindState:
+                line.append(stateNames[(int) value]);
+                break;
+            default:  // 'n', a number
+                line.append(value);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package tools;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// NOT thread safe: a command-line tool, run by its main thread only
+
+/**
+ * Synthetic input traces, in the "[time]request" format that TestMain and the
+ * virtual-time engine replay.
+ * <p>
+ *     The options are given as name=value arguments, e.g. a lobby-heavy
+ *     morning with a few resets:
+ *     <pre>
+ *     java -cp out tools.TrafficGenerator passengers=100000 rate=20 \
+ *         traffic=up:8,inter:2 arrivals=bursty resetRate=0.05 seed=7 > up.txt
+ *     </pre>
+ *     <ul>
+ *         <li>passengers(100): the number of person requests;</li>
+ *         <li>duration(none): or stop at this second, whichever comes first;</li>
+ *         <li>rate(2): passengers a second on average;</li>
+ *         <li>arrivals(poisson): poisson, or bursty: groups of geometric size
+ *         (mean burst, 8 by default) arriving at one instant, as a Poisson
+ *         process of rate/burst;</li>
+ *         <li>traffic(inter): up(from the lobby), down(to the lobby), inter
+ *         (uniform between the other floors), or a weighted mix such as
+ *         up:6,down:1,inter:3;</li>
+ *         <li>floors(11), minFloor(1), lobby(minFloor), shafts(6): the
+ *         building, to match the BuildingConfig of the run;</li>
+ *         <li>resetRate(0): resets a second, as a Poisson process of its own;
+ *         dcShare(0.25) of them RESET-DCElevator;</li>
+ *         <li>resetGap(5): seconds at least between two resets of a shaft;</li>
+ *         <li>start(1.0): the time of the first arrival, in seconds;</li>
+ *         <li>seed(1).</li>
+ *     </ul>
+ *     Time stamps have ms resolution, the resolution of the replays.
+ * </p>
+ * <p>
+ *     The requests are written as they are drawn, so a trace of any length
+ *     takes constant memory: the person ids simply count up, and only the
+ *     last reset of each shaft is remembered. The resets follow the course's
+ *     rules: capacity 3 to 8, speed 0.2 to 0.6, a transfer floor at least 2
+ *     floors from either end, and no reset of a shaft once it is double-car;
+ *     a reset drawn when no shaft may take one is dropped. The passengers and
+ *     the resets draw from separate streams of the seed, so adding resets to a
+ *     trace leaves its passengers as they were.
+ * </p>
+ */
+public class TrafficGenerator {
+    private static final String[] trafficNames = {"up", "down", "inter"};
+    private static final int up = 0;
+    private static final int down = 1;
+    private static final int minCapacity = 3;
+    private static final int maxCapacity = 8;
+    private static final String[] speeds = {"0.2", "0.3", "0.4", "0.5", "0.6"};
+
+    private final long passengers;
+    private final double duration;
+    private final double rate;
+    private final boolean bursty;
+    private final double burst;
+    private final double[] trafficWeights = new double[trafficNames.length];
+    private final int minFloor;
+    private final int maxFloor;
+    private final int lobby;
+    private final double resetRate;
+    private final double dcShare;
+    private final double resetGap;
+    private final SplittableRandom passengerRandom;
+    private final SplittableRandom resetRandom;
+
+    // the state of the streams
+    private final double[] lastReset;  // the time of each shaft's last reset
+    private final boolean[] doubleCar;
+    private long personId = 0;
+    private double nextArrival;
+    private long burstLeft = 0;  // passengers of the current burst still to come
+    private double nextReset;
+    private final byte[] line = new byte[64];
+    private int length;
+
+    TrafficGenerator(Map<String, String> options) {
+        passengers = Long.parseLong(options.getOrDefault("passengers", "100"));
+        duration = Double.parseDouble(options.getOrDefault("duration", "Infinity"));
+        rate = Double.parseDouble(options.getOrDefault("rate", "2"));
+        final String arrivals = options.getOrDefault("arrivals", "poisson");
+        if (!arrivals.equals("poisson") && !arrivals.equals("bursty")) {
+            throw new IllegalArgumentException("arrivals: poisson or bursty, not " + arrivals);
+        }
+        bursty = arrivals.equals("bursty");
+        burst = Double.parseDouble(options.getOrDefault("burst", "8"));
+        parseTraffic(options.getOrDefault("traffic", "inter"));
+        minFloor = Integer.parseInt(options.getOrDefault("minFloor", "1"));
+        maxFloor = minFloor - 1 + Integer.parseInt(options.getOrDefault("floors", "11"));
+        lobby = Integer.parseInt(options.getOrDefault("lobby", Integer.toString(minFloor)));
+        final int shafts = Integer.parseInt(options.getOrDefault("shafts", "6"));
+        resetRate = Double.parseDouble(options.getOrDefault("resetRate", "0"));
+        dcShare = maxFloor - minFloor >= 4
+                ? Double.parseDouble(options.getOrDefault("dcShare", "0.25")) : 0;
+        resetGap = Double.parseDouble(options.getOrDefault("resetGap", "5"));
+        if (rate <= 0 || burst < 1 || maxFloor - minFloor < 2 || lobby < minFloor
+                || lobby > maxFloor || shafts < 1) {
+            throw new IllegalArgumentException("bad options " + options);
+        }
+        SplittableRandom root = new SplittableRandom(
+                Long.parseLong(options.getOrDefault("seed", "1")));
+        passengerRandom = root.split();
+        resetRandom = root.split();
+        lastReset = new double[shafts];
+        Arrays.fill(lastReset, Double.NEGATIVE_INFINITY);
+        doubleCar = new boolean[shafts];
+        final double start = Double.parseDouble(options.getOrDefault("start", "1.0"));
+        nextArrival = start;
+        burstLeft = bursty ? drawBurst() : 0;
+        nextReset = resetRate > 0 ? start + exponential(resetRandom, resetRate)
+                : Double.POSITIVE_INFINITY;
+    }
+
+    private void parseTraffic(String traffic) {
+        for (String part : traffic.split(",")) {
+            final int colon = part.indexOf(':');
+            final String name = colon < 0 ? part : part.substring(0, colon);
+            final double weight = colon < 0 ? 1 : Double.parseDouble(part.substring(colon + 1));
+            int kind = 0;
+            while (kind < trafficNames.length && !trafficNames[kind].equals(name)) {
+                kind++;
+            }
+            if (kind == trafficNames.length || weight < 0) {
+                throw new IllegalArgumentException("traffic: up, down, inter or a mix, not "
+                        + traffic);
+            }
+            trafficWeights[kind] += weight;
+        }
+        double sum = 0;
+        for (double weight : trafficWeights) {
+            sum += weight;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("traffic: no weight in " + traffic);
+        }
+        for (int i = 0; i < trafficWeights.length; i++) {
+            trafficWeights[i] /= sum;
+        }
+    }
+
+    private static double exponential(SplittableRandom random, double rate) {
+        return -Math.log(1 - random.nextDouble()) / rate;
+    }
+
+    /**
+     * Write the whole trace, in time order.
+     */
+    void generate(OutputStream out) throws IOException {
+        while (personId < passengers && nextArrival <= duration) {
+            if (nextReset <= nextArrival) {
+                writeReset(out);
+                nextReset += exponential(resetRandom, resetRate);
+            } else {
+                writePassenger(out);
+                advanceArrival();
+            }
+        }
+        out.flush();
+    }
+
+    private void advanceArrival() {
+        if (!bursty) {
+            nextArrival += exponential(passengerRandom, rate);
+            return;
+        }
+        if (burstLeft > 0) {
+            burstLeft--;
+            return;  // the same instant
+        }
+        nextArrival += exponential(passengerRandom, rate / burst);
+        burstLeft = drawBurst();
+    }
+
+    /**
+     * @return the size of a burst less its first passenger: geometric on
+     *         0, 1, ... with mean burst - 1
+     */
+    private long drawBurst() {
+        return burst <= 1 ? 0 : (long) (Math.log(1 - passengerRandom.nextDouble())
+                / Math.log(1 - 1 / burst));
+    }
+
+    private void writePassenger(OutputStream out) throws IOException {
+        final double pick = passengerRandom.nextDouble();
+        final int from;
+        final int to;
+        if (pick < trafficWeights[up]) {
+            from = lobby;
+            to = floorOtherThan(lobby);
+        } else if (pick < trafficWeights[up] + trafficWeights[down]) {
+            from = floorOtherThan(lobby);
+            to = lobby;
+        } else {
+            from = floorOtherThan(-1);
+            to = floorOtherThan(from);
+        }
+        beginLine(nextArrival);
+        appendNumber(++personId);
+        appendText("-FROM-");
+        appendNumber(from);
+        appendText("-TO-");
+        appendNumber(to);
+        endLine(out);
+    }
+
+    /**
+     * @return a uniform floor of the building but the given one(-1 for none)
+     */
+    private int floorOtherThan(int other) {
+        int floor;
+        do {
+            floor = minFloor + passengerRandom.nextInt(maxFloor - minFloor + 1);
+        } while (floor == other);
+        return floor;
+    }
+
+    private void writeReset(OutputStream out) throws IOException {
+        // a uniform shaft among those free to be reset now
+        int shaft = -1;
+        int free = 0;
+        for (int i = 0; i < lastReset.length; i++) {
+            if (!doubleCar[i] && nextReset - lastReset[i] >= resetGap
+                    && resetRandom.nextInt(++free) == 0) {
+                shaft = i;
+            }
+        }
+        if (shaft < 0) {
+            return;
+        }
+        lastReset[shaft] = nextReset;
+        final int capacity = minCapacity + resetRandom.nextInt(maxCapacity - minCapacity + 1);
+        final String speed = speeds[resetRandom.nextInt(speeds.length)];
+        beginLine(nextReset);
+        if (resetRandom.nextDouble() < dcShare) {
+            doubleCar[shaft] = true;
+            appendText("RESET-DCElevator-");
+            appendNumber(shaft + 1);
+            appendText("-");
+            appendNumber(minFloor + 2 + resetRandom.nextInt(maxFloor - minFloor - 3));
+        } else {
+            appendText("RESET-Elevator-");
+            appendNumber(shaft + 1);
+        }
+        appendText("-");
+        appendNumber(capacity);
+        appendText("-");
+        appendText(speed);
+        endLine(out);
+    }
+
+    // the line is built in a byte array: millions of lines, no String each
+
+    private void beginLine(double seconds) {
+        final long millis = Math.round(seconds * 1000);
+        length = 0;
+        line[length++] = '[';
+        appendNumber(millis / 1000);
+        line[length++] = '.';
+        // at least one decimal, without trailing zeros: [1.1], [2.125]
+        long fraction = millis % 1000;
+        int digits = 3;
+        while (digits > 1 && fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        for (long scale = digits == 3 ? 100 : digits == 2 ? 10 : 1; scale > 0; scale /= 10) {
+            line[length++] = (byte) ('0' + fraction / scale % 10);
+        }
+        line[length++] = ']';
+    }
+
+    private void appendNumber(long number) {
+        final int begin = length;
+        do {
+            line[length++] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        for (int i = begin, j = length - 1; i < j; i++, j--) {
+            final byte swap = line[i];
+            line[i] = line[j];
+            line[j] = swap;
+        }
+    }
+
+    private void appendText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            line[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void endLine(OutputStream out) throws IOException {
+        line[length++] = '\n';
+        out.write(line, 0, length);
+    }
+
+    public static void main(String[] args) throws IOException {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                System.err.println("usage: java tools.TrafficGenerator [name=value ...]"
+                        + " (see the class comment)");
+                System.exit(1);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new TrafficGenerator(options).generate(new BufferedOutputStream(System.out, 1 << 16));
+    }
+}